@@ -28,26 +28,59 @@
 package org.sola.common;
 
 import com.sun.istack.ByteArrayDataSource;
-import com.sun.pdfview.PDFFile;
-import com.sun.pdfview.PDFPage;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.InflaterInputStream;
 import javax.activation.DataHandler;
 import javax.activation.FileDataSource;
-import javax.swing.ImageIcon;
-import org.apache.sanselan.Sanselan;
 import org.jvnet.staxex.StreamingDataHandler;
+import org.sola.common.cache.CacheEntry;
+import org.sola.common.cache.CacheMaintenanceService;
+import org.sola.common.cache.CacheRemovalListener;
+import org.sola.common.cache.CacheStatistics;
+import org.sola.common.cache.DocumentCache;
+import org.sola.common.cache.DocumentCache.Verification;
+import org.sola.common.cache.EvictionPolicy;
+import org.sola.common.cache.LruEvictionPolicy;
+import org.sola.common.cache.MemoryCacheTier;
+import org.sola.common.logging.LogUtility;
 import org.sola.common.messaging.ClientMessage;
 import org.sola.common.messaging.MessageUtility;
 import org.sola.common.messaging.ServiceMessage;
+import org.sola.common.thumbnail.ImageUtility;
+import org.sola.common.thumbnail.ThumbnailCache;
+import org.sola.common.thumbnail.ThumbnailCallback;
+import org.sola.common.thumbnail.ThumbnailDecoder;
+import org.sola.common.thumbnail.ThumbnailDecoders;
+import org.sola.common.thumbnail.ThumbnailService;
 
 /**
  * Provides static methods to manage various aspects related to the files.
@@ -55,6 +88,11 @@ import org.sola.common.messaging.ServiceMessage;
  * The FileUtility also maintains a cache of documents and will automatically
  * purge old files from the cache if the cache exceeds its maximum size (default
  * max size is 200Mb).
+ *
+ * Access to the documents cache is thread safe. Writes of the same cached file
+ * are coordinated using per file locks. Files are written to a temporary file
+ * and then renamed into the cache so that a reader will never see a partially
+ * written file.
  */
 public class FileUtility {
 
@@ -63,55 +101,526 @@ public class FileUtility {
     // alternative to the default ;. This is because SOLA uses ; as a special
     // path separator character when dealing with NetworkFolder. 
     public final static String alternatePathSeparator = "!!";
-    private static long maxCacheSizeBytes = 200 * 1024 * 1024;
-    private static long resizedCacheSizeBytes = 120 * 1024 * 1024;
-    private static int minNumberCachedFiles = 10;
-    private static long maxFileSizeBytes = 100 * 1024 * 1024;
-    private static String cachePath = System.getProperty("user.home") + "/sola/cache/documents/";
+    private static volatile long maxCacheSizeBytes = 200 * 1024 * 1024;
+    private static volatile long resizedCacheSizeBytes = 120 * 1024 * 1024;
+    private static volatile int minNumberCachedFiles = 10;
+    private static volatile long maxFileSizeBytes = 100 * 1024 * 1024;
+    private static volatile String cachePath = System.getProperty("user.home") + "/sola/cache/documents/";
+    private static volatile DocumentCache documentCache = null;
+    private static CacheMaintenanceService cacheMaintenance = null;
+    private static volatile boolean asyncCacheMaintenance = true;
+    private static volatile boolean atomicCacheWrites = true;
+    private static volatile boolean syncCacheWrites = false;
+    private static volatile boolean contentAddressedCache = false;
+    private static volatile boolean shardedCache = false;
+    private static volatile Set<String> compressedExtensions = Collections.emptySet();
+    private static Verification cacheVerification = Verification.NONE;
+    private static int verificationSampleRate = 1;
+    private static EvictionPolicy cacheEvictionPolicy = new LruEvictionPolicy();
+    private static volatile MemoryCacheTier memoryTier = null;
+    private static volatile ThumbnailCache thumbnailCache = null;
+    // Use an 8K buffer for writing files. This is usually the most effecient buffer size. 
+    private static volatile BufferPool copyBuffers = new BufferPool(8 * 1024, 64, false);
+    // The saves that are in progress keyed by the sanitized file name
+    private static final ConcurrentHashMap<String, FutureTask<String>> inFlightSaves =
+            new ConcurrentHashMap<String, FutureTask<String>>();
+    // The number of callers waiting for a save by another thread to complete
+    private static final AtomicInteger waitingSaves = new AtomicInteger(0);
+
+    /**
+     * Returns the index for the documents cache. The index is created the
+     * first time it is required and again after the cache path is changed or
+     * the cache is closed.
+     */
+    private static DocumentCache getDocumentCache() {
+        DocumentCache cache = documentCache;
+        return cache == null ? createDocumentCache() : cache;
+    }
+
+    private static synchronized DocumentCache createDocumentCache() {
+        if (documentCache == null) {
+            DocumentCache cache = new DocumentCache(new File(getCachePath()));
+            cache.setSharded(shardedCache);
+            cache.setEvictionPolicy(cacheEvictionPolicy);
+            cache.setContentAddressed(contentAddressedCache);
+            cache.setVerification(cacheVerification, verificationSampleRate);
+            cache.setRemovalListener(new CacheRemovalListener() {
+
+                @Override
+                public void documentRemoved(String name) {
+                    invalidateMemoryTier(name);
+                }
+            });
+            cacheMaintenance = new CacheMaintenanceService(cache);
+            cache.getMetrics().registerMBean();
+            documentCache = cache;
+        }
+        return documentCache;
+    }
+
+    /**
+     * Closes the documents cache. A snapshot of the cache index is saved so
+     * the index can be loaded without listing the documents cache the next
+     * time the cache is used, the background maintenance thread is stopped
+     * and the content file journal is closed. Applications should call this method when they shut down (or
+     * are undeployed). The cache is opened again if it is used after it has
+     * been closed.
+     */
+    public static synchronized void closeDocumentCache() {
+        DocumentCache cache = documentCache;
+        if (cache != null) {
+            documentCache = null;
+            cacheMaintenance.shutdown();
+            cacheMaintenance = null;
+            saveCacheSnapshot(cache);
+            cache.close();
+        }
+    }
+
+    /**
+     * Returns the maintenance service for the documents cache.
+     */
+    private static synchronized CacheMaintenanceService getCacheMaintenance() {
+        getDocumentCache();
+        return cacheMaintenance;
+    }
 
     /**
      * Checks the cache to ensure it won't exceed the max size cache size. If
-     * the new document will cause the cache to exceed the max size, the older
-     * documents in the cache are deleted until the cache reaches the resize
-     * limit.
+     * the new document will cause the cache to exceed the max size, documents
+     * selected by the cache eviction policy are deleted until the cache reaches
+     * the resize limit. The eviction policy is notified of the new document
+     * first so it can decide if the new document should be kept.
+     *
+     * <p>The size of the cache is obtained from the cache index so the cache
+     * directory does not need to be read each time a file is added to the
+     * cache. By default the documents are deleted by a background thread. See
+     * {@linkplain #setAsyncCacheMaintenance(boolean)}.</p>
      *
-     * @param cache The directory for the documents cache
+     * @param cache The index for the documents cache
+     * @param storedName The name the new file will be stored as in the cache.
      * @param newFileSize The size of the new file to open in bytes.
      */
-    private static void maintainCache(File cache, long newFileSize) {
-        long cacheSize = getDirectorySize(cache, false);
-        cacheSize += newFileSize;
+    private static void maintainCache(DocumentCache cache, String storedName, long newFileSize) {
+        long cacheSize = cache.getTotalSize() + newFileSize;
         if (cacheSize > maxCacheSizeBytes) {
-            System.out.println("Resizing SOLA documents cache.");
-            // The cache has exceeded its max size. Delete the oldest files in the cache based
-            // on thier last modified date. 
-            List<File> files = Arrays.asList(cache.listFiles());
-            Collections.sort(files, new Comparator<File>() {
-                @Override
-                public int compare(File f1, File f2) {
-                    return (f1.lastModified() > f2.lastModified() ? 1
-                            : (f1.lastModified() == f2.lastModified() ? 0 : -1));
-                }
-            });
+            LogUtility.log("Resizing SOLA documents cache.", Level.FINE);
+            cache.recordAdmission(storedName, newFileSize);
+            // The cache has exceeded its max size. Delete the files selected by the 
+            // eviction policy (least recently used by default). 
+            if (asyncCacheMaintenance) {
+                getCacheMaintenance().requestTrim(resizedCacheSizeBytes - newFileSize,
+                        minNumberCachedFiles);
+            } else {
+                getCacheMaintenance().trimNow(resizedCacheSizeBytes - newFileSize,
+                        minNumberCachedFiles);
+            }
+        }
+    }
 
-            int numFiles = files.size();
-            for (File f : files) {
-                if (numFiles < minNumberCachedFiles) {
-                    break;
-                }
-                // Only delete files - ignore subdirectories. 
-                if (f.isFile()) {
-                    cacheSize = cacheSize - f.length();
-                    f.delete();
-                    if (cacheSize < resizedCacheSizeBytes) {
-                        break;
-                    }
-                }
-                numFiles--;
+    /**
+     * Sets the policy used to select the documents to remove from the cache
+     * when the cache exceeds its maximum size. Default is
+     * {@linkplain LruEvictionPolicy}.
+     *
+     * @param policy The eviction policy to use for the documents cache.
+     * @see org.sola.common.cache.LfuEvictionPolicy
+     * @see org.sola.common.cache.GreedyDualSizeEvictionPolicy
+     * @see org.sola.common.cache.TinyLfuEvictionPolicy
+     */
+    public static synchronized void setCacheEvictionPolicy(EvictionPolicy policy) {
+        if (policy != null) {
+            cacheEvictionPolicy = policy;
+            if (documentCache != null) {
+                documentCache.setEvictionPolicy(policy);
+            }
+        }
+    }
+
+    /**
+     * Indicates if documents should be purged from the cache by a background
+     * thread (true) or by the thread that adds the document to the cache
+     * (false). Default is true.
+     *
+     * @param async If true, the cache is maintained in the background.
+     */
+    public static void setAsyncCacheMaintenance(boolean async) {
+        asyncCacheMaintenance = async;
+    }
+
+    /**
+     * Indicates if documents should be written to a temporary file and then
+     * renamed into the cache (true) or written directly to the cache file
+     * (false). Default is true. Atomic writes ensure a partially written
+     * document is never visible in the cache, so reads from the cache do not
+     * need to be locked.
+     *
+     * @param atomic If true, documents are written to the cache atomically.
+     * @see #writeFileAtomic(java.io.InputStream, java.io.File, boolean)
+     */
+    public static void setAtomicCacheWrites(boolean atomic) {
+        atomicCacheWrites = atomic;
+    }
+
+    /**
+     * Indicates if documents written to the cache should be forced to disk
+     * before they are renamed into the cache. Only applies if atomic cache
+     * writes are used. Default is false.
+     *
+     * @param sync If true, each document is synced to disk as it is written.
+     */
+    public static void setSyncCacheWrites(boolean sync) {
+        syncCacheWrites = sync;
+    }
+
+    /**
+     * Indicates if documents should be stored in the cache by content (true)
+     * or by document name (false). Default is false.
+     *
+     * <p>When documents are stored by content, each document is saved to a
+     * file named using the SHA-256 hash of its content and the document name
+     * is mapped to that file. Documents with identical content, such as
+     * different row versions of the same scanned document, share a single
+     * file in the cache. The document name is used to access the document in
+     * the same way as documents that are not stored by content.</p>
+     *
+     * @param contentAddressed If true, new documents are stored by content.
+     */
+    public static synchronized void setContentAddressedCache(boolean contentAddressed) {
+        contentAddressedCache = contentAddressed;
+        if (documentCache != null) {
+            documentCache.setContentAddressed(contentAddressed);
+        }
+    }
+
+    /**
+     * Indicates if the documents cache should store files in two levels of
+     * subdirectories named using the hash of the file name (true) or directly
+     * in the cache directory (false). Default is false.
+     *
+     * <p>Sharding keeps the number of files in each directory small, which
+     * avoids slow file lookups when the cache holds a very large number of
+     * documents. Existing files are moved to the new layout the first time
+     * the cache is used after this setting is changed.</p>
+     *
+     * <p>If the documents cache is already open when this setting is
+     * changed, the cache is closed so that the files are moved the next time
+     * the cache is used.</p>
+     *
+     * @param sharded If true, cached files are stored in hash-sharded
+     * subdirectories.
+     * @see #closeDocumentCache()
+     */
+    public static synchronized void setShardedCache(boolean sharded) {
+        if (shardedCache != sharded) {
+            shardedCache = sharded;
+            closeDocumentCache();
+        }
+    }
+
+    /**
+     * Immediately purges documents from the cache until the cache is reduced
+     * to the resized cache size. The purge is performed on the calling thread.
+     * Can be used to free disk space if the disk holding the cache is
+     * critically low.
+     *
+     * @return The number of bytes removed from the cache.
+     * @see #setResizedCacheSizeBytes(long)
+     */
+    public static long trimCache() {
+        return getCacheMaintenance().trimNow(resizedCacheSizeBytes, minNumberCachedFiles);
+    }
+
+    /**
+     * Configures an in memory tier for the documents cache. Small documents
+     * read with {@linkplain #readFileFromCache(java.lang.String)} are held in
+     * memory so that subsequent reads do not need to access the file system.
+     * The memory tier is disabled by default.
+     *
+     * @param maxTotalBytes The maximum number of bytes to hold in memory. Use
+     * 0 to disable the memory tier.
+     * @param maxEntryBytes The maximum size of a document that can be held in
+     * memory.
+     * @param storage How the documents are held in memory. If null,
+     * {@linkplain MemoryCacheTier.Storage#HEAP} is used.
+     */
+    public static void setMemoryCacheTier(long maxTotalBytes, int maxEntryBytes,
+            MemoryCacheTier.Storage storage) {
+        memoryTier = maxTotalBytes > 0
+                ? new MemoryCacheTier(maxTotalBytes, maxEntryBytes, storage) : null;
+    }
+
+    /**
+     * Sets the file extensions of the documents that should be compressed
+     * when they are written to the documents cache. Compression is suitable
+     * for uncompressed formats such as TIFF scans and text exports, but not
+     * for formats that are already compressed such as JPEG or PDF. By default
+     * no documents are compressed.
+     *
+     * <p>Compressed documents are stored using Deflate and are decompressed
+     * as they are read. Documents that must be accessed as a file (e.g. to
+     * open or print the document) are decompressed into the cache the first
+     * time they are accessed in this way.</p>
+     *
+     * @param extensions The file extensions (without the leading .) of the
+     * documents to compress. Use no extensions to switch compression off.
+     */
+    public static void setCompressedCacheExtensions(String... extensions) {
+        Set<String> result = new HashSet<String>();
+        if (extensions != null) {
+            for (String ext : extensions) {
+                result.add(ext.toLowerCase());
+            }
+        }
+        compressedExtensions = result;
+    }
+
+    /**
+     * Returns true if the document should be compressed when it is written to
+     * the cache. The file extension is not case sensitive.
+     */
+    private static boolean isCompressible(String fileName) {
+        Set<String> extensions = compressedExtensions;
+        if (extensions.isEmpty()) {
+            return false;
+        }
+        String ext = getFileExtension(fileName);
+        return ext != null && extensions.contains(ext.toLowerCase());
+    }
+
+    /**
+     * Opens an input stream to read the content of a file in the cache. The
+     * content is decompressed as it is read if the file is compressed.
+     */
+    private static InputStream openCachedFile(File file) throws FileNotFoundException {
+        InputStream in = new FileInputStream(file);
+        return DocumentCache.isCompressed(file.getName()) ? new InflaterInputStream(in) : in;
+    }
+
+    /**
+     * Copies the input stream to the output stream using a pooled buffer.
+     * Neither stream is closed.
+     *
+     * @return The number of bytes copied.
+     */
+    private static long copyStream(InputStream in, OutputStream out) throws IOException {
+        BufferPool pool = copyBuffers;
+        ByteBuffer buf = pool.acquire();
+        try {
+            long total = 0;
+            int len;
+            while ((len = in.read(buf.array(), 0, buf.capacity())) != -1) {
+                out.write(buf.array(), 0, len);
+                total += len;
+            }
+            return total;
+        } finally {
+            pool.release(buf);
+        }
+    }
+
+    /**
+     * Returns the uncompressed file for the document in the cache. If the
+     * document is compressed, the document is decompressed into the cache and
+     * the compressed copy is removed.
+     *
+     * @param cache The documents cache
+     * @param fileName The sanitized name of the document.
+     */
+    private static File getPlainFile(DocumentCache cache, String fileName) throws IOException {
+        File file = cache.getFile(fileName);
+        if (!DocumentCache.isCompressed(file.getName())) {
+            return file;
+        }
+        Lock lock = cache.getLock(fileName).writeLock();
+        lock.lock();
+        try {
+            String storedName = cache.resolve(fileName);
+            if (!DocumentCache.isCompressed(storedName)) {
+                return cache.getFile(fileName);
+            }
+            String plainName = DocumentCache.getUncompressedName(storedName);
+            File plainFile = cache.getStoredFile(plainName);
+            CacheEntry entry = cache.get(storedName);
+            File tmpFile = cache.createTempFile(".sola");
+            try {
+                writeFile(new InflaterInputStream(
+                        new FileInputStream(cache.getStoredFile(storedName))), tmpFile);
+                long length = tmpFile.length();
+                maintainCache(cache, plainName, length);
+                publishFile(tmpFile, plainFile, syncCacheWrites);
+                cache.put(plainName, length,
+                        entry == null ? CacheEntry.NO_CHECKSUM : entry.getChecksum());
+            } finally {
+                deleteFile(tmpFile);
+            }
+            if (plainName.equals(fileName)) {
+                // The compressed copy is no longer required
+                cache.delete(storedName);
+            } else {
+                // The document is stored by content
+                cache.link(fileName, plainName);
+            }
+            return plainFile;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the verification to perform when documents are read from the
+     * cache. Default is {@linkplain Verification#NONE}. Documents that fail
+     * verification are removed from the cache so they will be obtained again
+     * the next time they are required.
+     *
+     * <p>The CRC32 checksum of each document is calculated as it is written
+     * to the cache, so enabling verification does not require the document
+     * to be read a second time when it is written.</p>
+     *
+     * @param verification The verification to perform.
+     * @param sampleRate Used with {@linkplain Verification#SAMPLED} to verify
+     * the checksum for 1 in every sampleRate reads of documents that have not
+     * been verified.
+     */
+    public static synchronized void setCacheVerification(Verification verification,
+            int sampleRate) {
+        cacheVerification = verification;
+        verificationSampleRate = sampleRate;
+        if (documentCache != null) {
+            documentCache.setVerification(verification, sampleRate);
+        }
+    }
+
+    /**
+     * Checks the size of the cached document matches the cache index. If the
+     * document has been truncated, it is removed from the cache.
+     *
+     * @return false if the document was found to be truncated.
+     */
+    private static boolean checkCachedFile(DocumentCache cache, String fileName) {
+        if (cache.checkSize(fileName)) {
+            return true;
+        }
+        removeCorruptFile(cache, fileName, null);
+        return false;
+    }
+
+    /**
+     * Removes a document that failed verification from the cache. The
+     * document is only removed if it has not been replaced since it was
+     * verified. Must not be called while holding the read lock for the
+     * document.
+     *
+     * @param cache The documents cache
+     * @param fileName The sanitized name of the document.
+     * @param entry The entry the checksum was verified against or null if the
+     * size check failed.
+     */
+    private static void removeCorruptFile(DocumentCache cache, String fileName, CacheEntry entry) {
+        Lock lock = cache.getLock(fileName).writeLock();
+        lock.lock();
+        try {
+            boolean corrupt = entry == null ? !cache.checkSize(fileName)
+                    : cache.get(fileName) == entry;
+            if (corrupt) {
+                LogUtility.log("Removing corrupt file " + fileName
+                        + " from the SOLA documents cache.", Level.WARNING);
+                invalidateMemoryTier(fileName);
+                cache.delete(fileName);
+                cache.getMetrics().recordCorruption();
             }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Enables caching of the thumbnails created by
+     * {@linkplain #createImageThumbnail(java.lang.String, int, int)}.
+     * Thumbnails are cached in memory and stored on disk in a thumbnails
+     * directory beside the documents cache, so a thumbnail only needs to be
+     * created once for each file and thumbnail size. Thumbnails are not cached
+     * by default.
+     *
+     * @param maxDiskBytes The maximum size of the thumbnails stored on disk.
+     * @param maxMemoryBytes The maximum size of the thumbnails held in memory
+     * (4 bytes per pixel).
+     */
+    public static void setThumbnailCache(long maxDiskBytes, long maxMemoryBytes) {
+        thumbnailCache = maxDiskBytes > 0 || maxMemoryBytes > 0
+                ? new ThumbnailCache(new File(new File(getCachePath()).getParentFile(), "thumbnails"),
+                maxDiskBytes, maxMemoryBytes) : null;
+    }
+
+    /**
+     * Returns the thumbnail cache or null if thumbnails are not cached.
+     *
+     * @see #setThumbnailCache(long, long)
+     */
+    public static ThumbnailCache getThumbnailCache() {
+        return thumbnailCache;
+    }
+
+    /**
+     * Removes the document from the in memory tier of the cache if the memory
+     * tier is enabled.
+     */
+    private static void invalidateMemoryTier(String fileName) {
+        MemoryCacheTier tier = memoryTier;
+        if (tier != null) {
+            tier.invalidate(fileName);
+        }
+    }
+
+    /**
+     * Sets the size of the buffers used to copy data to files. The buffers
+     * are pooled and reused so that a new buffer does not need to be
+     * allocated each time a file is written. Default is 8KB with a maximum of
+     * 64 pooled buffers.
+     *
+     * @param bufferSize The size of each copy buffer in bytes.
+     * @param maxPooled The maximum number of buffers to retain for reuse.
+     */
+    public static void setCopyBufferSize(int bufferSize, int maxPooled) {
+        if (bufferSize > 0) {
+            copyBuffers = new BufferPool(bufferSize, maxPooled, false);
+        }
+    }
+
+    /**
+     * Saves a snapshot of the documents cache index so that the index can be
+     * loaded without listing the documents cache the next time the cache is
+     * used. The snapshot is also saved when the cache is closed.
+     *
+     * @see #closeDocumentCache()
+     */
+    public static void saveCacheSnapshot() {
+        DocumentCache cache = documentCache;
+        if (cache != null) {
+            saveCacheSnapshot(cache);
         }
     }
 
+    private static void saveCacheSnapshot(DocumentCache cache) {
+        try {
+            cache.saveSnapshot();
+        } catch (IOException ex) {
+            LogUtility.log("Unable to save SOLA documents cache snapshot: " + ex.getMessage(),
+                    Level.WARNING);
+        }
+    }
+
+    /**
+     * Returns a snapshot of the documents cache metrics (hits, misses, bytes
+     * written, evictions, eviction pause times and current size). The metrics
+     * are also available through JMX using the
+     * {@value org.sola.common.cache.CacheMetrics#MBEAN_NAME} MBean for the
+     * cache directory.
+     */
+    public static CacheStatistics getCacheStatistics() {
+        return getDocumentCache().getMetrics().getStatistics();
+    }
+
     /**
      * Sets the minimum number of files that should be left in the cache when it
      * is being resized. Default is 10.
@@ -152,6 +661,14 @@ public class FileUtility {
      * value from its default may require adjusting the memory settings for the
      * SOLA domain on the SOLA Glassfish Server. </p>
      *
+     * <p>This limit is only applied by the methods that load the whole file
+     * into a byte array (e.g. {@linkplain #getFileBinary(java.lang.String)}).
+     * The streaming methods such as
+     * {@linkplain #writeFileToCache(java.io.InputStream, java.lang.String)},
+     * {@linkplain #readFileFromCache(java.lang.String, java.io.OutputStream)}
+     * and {@linkplain #openFileChannelFromCache(java.lang.String)} use a fixed
+     * amount of memory regardless of the size of the file.</p>
+     *
      * @param sizeInBytes The maximum size of the file in bytes.
      */
     public static void setMaxFileSizeBytes(long sizeInBytes) {
@@ -159,16 +676,31 @@ public class FileUtility {
     }
 
     /**
-     * Sets the path to use for the documents cache
+     * Sets the path to use for the documents cache. If the documents cache is
+     * open for a different path, it is closed.
      *
      * @param newCachePath The new cache path.
+     * @see #closeDocumentCache()
      */
-    public static void setCachePath(String newCachePath) {
+    public static synchronized void setCachePath(String newCachePath) {
         if (newCachePath != null) {
             cachePath = newCachePath;
+            DocumentCache cache = documentCache;
+            if (cache != null && !cache.getDirectory().equals(new File(newCachePath))) {
+                closeDocumentCache();
+            }
         }
     }
 
+    /**
+     * Returns the total size of the files in the documents cache in bytes.
+     * The size is tracked as files are written to and removed from the cache,
+     * so the cache directory is not listed.
+     */
+    public static long getCacheSize() {
+        return getDocumentCache().getTotalSize();
+    }
+
     /**
      * Returns the absolute file path for the documents cache directory.
      */
@@ -186,12 +718,20 @@ public class FileUtility {
      * that the document name should include the rowVersion number to ensure any
      * documents that get updated also get reloaded in the cache.
      *
+     * <p>A miss is recorded in the cache metrics if the file is not cached.
+     * Hits are recorded when the file is read from the cache, so a file that
+     * is checked and then read is only counted once.</p>
+     *
      * @param tmpFileName The name of the file to check in the documents cache.
      */
     public static boolean isCached(String tmpFileName) {
         tmpFileName = sanitizeFileName(tmpFileName, true);
-        File file = new File(getCachePath() + File.separator + tmpFileName);
-        return file.exists();
+        DocumentCache cache = getDocumentCache();
+        boolean result = cache.contains(tmpFileName) && checkCachedFile(cache, tmpFileName);
+        if (!result) {
+            cache.getMetrics().recordMiss();
+        }
+        return result;
     }
 
     /**
@@ -221,6 +761,211 @@ public class FileUtility {
         }
     }
 
+    /**
+     * Returns a read only memory mapped buffer for the file. The content of
+     * the file is not copied onto the Java heap, so this method can be used
+     * for files that exceed the maximum file size set with
+     * {@linkplain #setMaxFileSizeBytes(long)}. Note that the mapping remains
+     * valid until the buffer is garbage collected and on some platforms (e.g.
+     * Windows) the file cannot be deleted while it is mapped. Use
+     * {@linkplain #unmap(java.nio.ByteBuffer)} to release the mapping once the
+     * buffer is no longer required.
+     *
+     * @param filePath The full path to the file
+     * @return The mapped buffer or null if the file does not exist.
+     */
+    public static ByteBuffer getFileBuffer(String filePath) {
+        File file = new File(filePath);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return mapFile(file);
+        } catch (IOException ex) {
+            throw new SOLAException(ServiceMessage.GENERAL_UNEXPECTED_ERROR_DETAILS,
+                    new String[]{"File could not be read", ex.getLocalizedMessage()});
+        }
+    }
+
+    /**
+     * Maps the file into memory as a read only buffer. The file channel is
+     * closed once the file is mapped.
+     *
+     * @param file The file to map.
+     * @throws IOException If the file could not be mapped.
+     */
+    private static MappedByteBuffer mapFile(File file) throws IOException {
+        if (file.length() > Integer.MAX_VALUE) {
+            DecimalFormat df = new DecimalFormat("#,###.#");
+            throw new SOLAException(ServiceMessage.EXCEPTION_FILE_TOO_BIG,
+                    new String[]{df.format(file.length() / (1024 * 1024)),
+                        df.format(Integer.MAX_VALUE / (1024 * 1024))});
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Releases the memory mapping of a buffer obtained from
+     * {@linkplain #getFileBuffer(java.lang.String)} or
+     * {@linkplain #readFileBufferFromCache(java.lang.String)} without waiting
+     * for the buffer to be garbage collected. Once the mapping is released,
+     * the file can be deleted or replaced on Windows. The buffer and any
+     * views of it must not be used after it has been unmapped as the JVM may
+     * crash if they are.
+     *
+     * @param buffer The mapped buffer. Views created with
+     * {@linkplain ByteBuffer#slice()} or {@linkplain ByteBuffer#duplicate()}
+     * cannot be unmapped.
+     * @return true if the mapping was released or false if the buffer is not
+     * a mapped buffer or the JVM does not support releasing the mapping. In
+     * that case the mapping will be released when the buffer is garbage
+     * collected.
+     */
+    public static boolean unmap(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return false;
+        }
+        try {
+            if (!Unmapper.isMapped(buffer)) {
+                // Releasing a buffer that is not mapped would free its memory while the
+                // caller may still be using it (e.g. a pooled direct buffer)
+                return false;
+            }
+            if (Unmapper.invokeCleaner != null) {
+                // Java 9 and later
+                try {
+                    Unmapper.invokeCleaner.invoke(Unmapper.unsafe, buffer);
+                    return true;
+                } catch (InvocationTargetException ex) {
+                    // The buffer is a view of another buffer
+                    return false;
+                }
+            }
+            // Java 8 and earlier. Views of a buffer do not have a cleaner.
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+                return true;
+            }
+        } catch (Exception ex) {
+            LogUtility.log("Unable to unmap buffer - " + ex.getMessage(), Level.FINE);
+        }
+        return false;
+    }
+
+    /**
+     * Locates the sun.misc.Unsafe methods used to unmap buffers. The
+     * invokeCleaner method is only available on Java 9 and later. The methods
+     * are located the first time a buffer is unmapped.
+     */
+    private static class Unmapper {
+
+        private static final Object unsafe;
+        private static final Method invokeCleaner;
+        private static final Method getObject;
+        private static final long fdOffset;
+
+        static {
+            Object unsafeInstance = null;
+            Method getObjectMethod = null;
+            long offset = -1;
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafeInstance = field.get(null);
+                // Direct buffers created with ByteBuffer.allocateDirect are also
+                // MappedByteBuffers, but they do not have a file descriptor
+                offset = (Long) unsafeClass.getMethod("objectFieldOffset", Field.class)
+                        .invoke(unsafeInstance, MappedByteBuffer.class.getDeclaredField("fd"));
+                getObjectMethod = unsafeClass.getMethod("getObject", Object.class, long.class);
+            } catch (Exception ex) {
+                // Mapped buffers cannot be identified, so none are unmapped
+                getObjectMethod = null;
+            }
+            Method method;
+            try {
+                method = Class.forName("sun.misc.Unsafe").getMethod("invokeCleaner",
+                        ByteBuffer.class);
+            } catch (Exception ex) {
+                // Not available before Java 9. Use the cleaner of the buffer instead.
+                method = null;
+            }
+            unsafe = unsafeInstance;
+            getObject = getObjectMethod;
+            fdOffset = offset;
+            invokeCleaner = method;
+        }
+
+        /**
+         * Returns true if the buffer is mapped to a file.
+         */
+        static boolean isMapped(ByteBuffer buffer) throws Exception {
+            return buffer instanceof MappedByteBuffer && getObject != null
+                    && getObject.invoke(unsafe, buffer, fdOffset) != null;
+        }
+    }
+
+    /**
+     * Transfers the content of the file to the target channel (e.g. a socket
+     * channel). Uses {@linkplain FileChannel#transferTo} so the operating
+     * system can copy the data directly to the target without copying it
+     * into the Java heap.
+     *
+     * @param file The file to transfer.
+     * @param target The channel to write the file content to. The channel is
+     * not closed.
+     * @return The number of bytes transferred.
+     * @throws IOException If an IO error occurs during the transfer.
+     */
+    public static long transferFile(File file, WritableByteChannel target) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            long position = 0;
+            // transferTo may not transfer all of the requested bytes in one call
+            while (position < size) {
+                long count = channel.transferTo(position, size - position, target);
+                if (count <= 0) {
+                    break;
+                }
+                position += count;
+            }
+            return position;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Transfers the content of the file to the output stream. If the output
+     * stream is a {@linkplain FileOutputStream}, the file channels are used to
+     * copy the data without copying it into the Java heap. Can be used to
+     * implement {@linkplain DataHandler#writeTo(java.io.OutputStream)}.
+     *
+     * @param file The file to transfer.
+     * @param out The stream to write the file content to. The stream is not
+     * closed.
+     * @return The number of bytes transferred.
+     * @throws IOException If an IO error occurs during the transfer.
+     */
+    public static long transferFile(File file, OutputStream out) throws IOException {
+        WritableByteChannel target = out instanceof FileOutputStream
+                ? ((FileOutputStream) out).getChannel() : Channels.newChannel(out);
+        long result = transferFile(file, target);
+        out.flush();
+        return result;
+    }
+
     /**
      * Returns file's extention.
      *
@@ -264,14 +1009,17 @@ public class FileUtility {
     /**
      * Returns the size of the directory. This is done by summing the size of
      * each file in the directory. The sizes of all subdirectories can be
-     * optionally included.
+     * optionally included. Use {@linkplain #getCacheSize()} to obtain the
+     * size of the documents cache.
      *
      * @param directory The directory to calculate the size for.
      */
     public static long getDirectorySize(File directory, boolean recursive) {
         long length = 0;
-        if (!directory.isFile()) {
-            for (File file : directory.listFiles()) {
+        // listFiles returns null if the directory does not exist or cannot be read
+        File[] files = directory.isFile() ? null : directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
                 if (file.isFile()) {
                     length += file.length();
                 } else {
@@ -293,7 +1041,28 @@ public class FileUtility {
      */
     public static void openFile(String tmpFileName) {
         String fileName = sanitizeFileName(tmpFileName, true);
-        openFile(new File(getCachePath() + File.separator + fileName));
+        DocumentCache cache = getDocumentCache();
+        File file = getPlainFileToOpen(cache, fileName);
+        if (!file.isFile()) {
+            cache.removeIfMissing(fileName);
+        }
+        cache.touch(fileName);
+        cache.getMetrics().recordHit(false);
+        openFile(file);
+    }
+
+    /**
+     * Returns the uncompressed file for a document that is to be opened or
+     * printed.
+     *
+     * @throws SOLAException If the document could not be decompressed.
+     */
+    private static File getPlainFileToOpen(DocumentCache cache, String fileName) {
+        try {
+            return getPlainFile(cache, fileName);
+        } catch (IOException ex) {
+            throw new SOLAException(ClientMessage.ERR_FAILED_OPEN_FILE, new String[]{fileName});
+        }
     }
 
     /**
@@ -305,8 +1074,10 @@ public class FileUtility {
      * exclude any file path.
      */
     public static void openFile(byte[] fileBinary, String fileName) {
-        File file = writeFileToCache(fileBinary, fileName);
-        openFile(file);
+        fileName = fileName == null ? generateFileName() : sanitizeFileName(fileName, true);
+        if (writeFileToCache(fileBinary, fileName) != null) {
+            openFile(getPlainFileToOpen(getDocumentCache(), fileName));
+        }
     }
 
     /**
@@ -323,7 +1094,7 @@ public class FileUtility {
         if (isExecutable(fileName)) {
             // Make sure the extension is changed before opening the file. 
             fileName = setTmpExtension(fileName);
-            File nonExeFile = new File(getCachePath() + File.separator + fileName);
+            File nonExeFile = new File(file.getParentFile(), fileName);
             file.renameTo(nonExeFile);
             file = nonExeFile;
         }
@@ -352,15 +1123,64 @@ public class FileUtility {
         }
     }
 
+    /**
+     * Creates a thumbnail image for the given file on a background thread
+     * using the shared {@linkplain ThumbnailService}. Use this method instead
+     * of {@linkplain #createImageThumbnail(java.lang.String, int, int)} when
+     * creating thumbnails from the Swing thread.
+     *
+     * @param filePath The full path to the file.
+     * @param width Thumbnail width.
+     * @param height Thumbnail height.
+     * @param callback The callback to notify when the thumbnail is created.
+     * The callback is invoked on the background thread. Can be null.
+     * @return A Future that can be used to obtain the thumbnail or cancel the
+     * request.
+     */
+    public static Future<BufferedImage> createImageThumbnail(String filePath, int width,
+            int height, ThumbnailCallback callback) {
+        return ThumbnailService.getDefault().submit(filePath, width, height, callback);
+    }
+
     /**
      * Creates thumbnail image for the given file. Returns null if format is not
-     * supported.
+     * supported. The format is identified from the signature at the start of
+     * the file rather than the file extension and the thumbnail is created by
+     * the decoder registered for that format in
+     * {@linkplain ThumbnailDecoders}. If thumbnail caching is enabled, the
+     * cached thumbnail is returned if the file has not changed since the
+     * thumbnail was created.
      *
      * @param filePath The full path to the file.
      * @param width Thumbnail width.
      * @param height Thumbnail height.
+     * @see #setThumbnailCache(long, long)
      */
     public static BufferedImage createImageThumbnail(String filePath, int width, int height) {
+        ThumbnailCache tc = thumbnailCache;
+        if (tc == null) {
+            return decodeImageThumbnail(filePath, width, height);
+        }
+        File file = new File(filePath);
+        if (!file.exists()) {
+            return null;
+        }
+        BufferedImage result = tc.get(file, width, height);
+        if (result == null) {
+            result = decodeImageThumbnail(filePath, width, height);
+            tc.put(file, width, height, result);
+        }
+        return result;
+    }
+
+    /**
+     * Creates the thumbnail image by decoding the file.
+     *
+     * @param filePath The full path to the file.
+     * @param width Thumbnail width.
+     * @param height Thumbnail height.
+     */
+    private static BufferedImage decodeImageThumbnail(String filePath, int width, int height) {
         try {
             File file = new File(filePath);
 
@@ -368,99 +1188,15 @@ public class FileUtility {
                 return null;
             }
 
-            Image thumbnail = null;
-            String fileExt = getFileExtension(filePath);
-
-            if (fileExt.equalsIgnoreCase("jpg") || fileExt.equalsIgnoreCase("jpeg")) {
-
-                ImageIcon tmp = new ImageIcon(filePath);
-                if (tmp == null || tmp.getIconWidth() <= 0
-                        || tmp.getIconHeight() <= 0) {
-                    return null;
-                }
-
-                ImageIcon scaled = null;
-
-                if ((tmp.getIconWidth() > width && width > 0)
-                        || (tmp.getIconHeight() > height && height > 0)) {
-                    scaled = new ImageIcon(tmp.getImage().getScaledInstance(
-                            width, height, Image.SCALE_SMOOTH));
-                } else {
-                    scaled = tmp;
-                }
-
-                BufferedImage buffered = new BufferedImage(
-                        scaled.getIconWidth(),
-                        scaled.getIconHeight(),
-                        BufferedImage.TYPE_INT_RGB);
-                Graphics2D g = buffered.createGraphics();
-                g.drawImage(scaled.getImage(), 0, 0, null);
-                g.dispose();
-
-                return buffered;
-
-            } else {
-
-                if (fileExt.equalsIgnoreCase("pdf")) {
-
-                    RandomAccessFile raf = new RandomAccessFile(file, "r");
-                    FileChannel channel = raf.getChannel();
-                    ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
-                    PDFFile pdffile = new PDFFile(buf);
-
-                    // draw the first page to an image
-                    PDFPage page = pdffile.getPage(0);
-
-                    //generate the image
-                    //#319 Improve quality of the image preview by ensuring the whole page
-                    // is captured correctly post any rotation that may be required. 
-                    // Use a multiple of 3 to increase the image depth for better image
-                    // definition. 
-                    thumbnail = page.getImage(
-                            (int) page.getWidth() * 3,
-                            (int) page.getHeight() * 3,
-                            null, // null for the clip rectangle to ensure entire page is captured
-                            null,
-                            true, // fill background with white
-                            true // block until drawing is done
-                            );
-
-                    buf.clear();
-                    channel.close();
-                    raf.close();
-
-                } else {
-
-                    BufferedImage img = Sanselan.getBufferedImage(file);
-                    thumbnail = Toolkit.getDefaultToolkit().createImage(img.getSource());
-
-                }
-
-                if (thumbnail == null || thumbnail.getWidth(null) <= 0
-                        || thumbnail.getHeight(null) <= 0) {
-                    return null;
-                }
-
-                Image scaled = null;
-
-                if ((thumbnail.getWidth(null) > width && width > 0)
-                        || (thumbnail.getHeight(null) > height && height > 0)) {
-                    scaled = thumbnail.getScaledInstance(
-                            width, height, Image.SCALE_SMOOTH);
-                } else {
-                    scaled = thumbnail;
-                }
-
-                BufferedImage buffered = new BufferedImage(
-                        scaled.getWidth(null),
-                        scaled.getHeight(null),
-                        BufferedImage.TYPE_INT_RGB);
-                Graphics2D g = buffered.createGraphics();
-                g.drawImage(scaled, 0, 0, null);
-                g.dispose();
-
-                return buffered;
+            // Identify the format from the content of the file so that unsupported
+            // files are rejected without attempting to decode them.
+            ThumbnailDecoder decoder = ThumbnailDecoders.getDecoder(file);
+            if (decoder == null) {
+                return null;
             }
+            Image thumbnail = decoder.decode(file, width, height);
+
+            return ImageUtility.scale(thumbnail, width, height);
 
         } catch (Exception e) {
             // Most likely the a thumbnail cannot be generated for the file type. Ignore the
@@ -549,10 +1285,19 @@ public class FileUtility {
      *
      * <p>If the DataHandler is a {@linkplain StreamingDataHandler}, then the
      * {@linkplain StreamingDataHandler#moveTo(java.io.File)} method is used to
-     * save the file to disk. Otherwise the InputStream from the DataHandler is
-     * written to disk using
+     * save the file to disk. If cached files are verified, the file is then
+     * read once more to calculate its checksum. Otherwise the InputStream from
+     * the DataHandler is written to disk using
      * {@linkplain #writeFileToCache(java.io.InputStream, java.io.File) writeFileToCache}.</p>
      *
+     * <p>If another thread is already saving a file with the same name, this
+     * method waits for that save to complete and then returns without reading
+     * the dataHandler. As the file name identifies the document and its row
+     * version, the file saved by the other thread has the same content. A
+     * StreamingDataHandler that is not read is closed so the remainder of the
+     * transfer is discarded. If the other save fails, this dataHandler is
+     * saved instead.</p>
+     *
      * <p>Note that file streaming is not currently supported if Metro security
      * is used. Refer to http://java.net/jira/browse/WSIT-1081 for details.
      * Using Security also substantially increases the memory required to handle
@@ -565,7 +1310,7 @@ public class FileUtility {
      * the fileName passed in if the fileName was null or it included invalid
      * characters (e.g. / \). Will return null if the dataHandler is null;
      */
-    public static String saveFileFromStream(DataHandler dataHandler, String fileName) {
+    public static String saveFileFromStream(final DataHandler dataHandler, String fileName) {
         if (dataHandler == null) {
             return null;
         }
@@ -574,24 +1319,110 @@ public class FileUtility {
         } else {
             fileName = sanitizeFileName(fileName, true);
         }
-        String filePathName = getCachePath() + File.separator + fileName;
-        File file = new File(filePathName);
-        deleteFile(file);
+        final String name = fileName;
+        FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+
+            @Override
+            public String call() {
+                return saveToCache(dataHandler, name);
+            }
+        });
+        FutureTask<String> inFlight = inFlightSaves.putIfAbsent(name, task);
+        if (inFlight != null) {
+            waitingSaves.incrementAndGet();
+            try {
+                String result = inFlight.get();
+                discard(dataHandler);
+                return result;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                // The other save failed. Try to save the file from this dataHandler. 
+            } finally {
+                waitingSaves.decrementAndGet();
+            }
+            return saveToCache(dataHandler, name);
+        }
         try {
-            if (dataHandler instanceof StreamingDataHandler) {
-                StreamingDataHandler sdh = null;
-                try {
-                    sdh = (StreamingDataHandler) dataHandler;
-                    sdh.moveTo(file);
-                } finally {
-                    if (sdh != null) {
-                        sdh.close();
+            task.run();
+            return task.get();
+        } catch (InterruptedException ex) {
+            // Cannot occur as the task has already run
+            Thread.currentThread().interrupt();
+            return name;
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new SOLAException(ServiceMessage.GENERAL_UNEXPECTED_ERROR_DETAILS,
+                    new Object[]{"Saving file " + name, ex.getLocalizedMessage(), ex});
+        } finally {
+            inFlightSaves.remove(name, task);
+        }
+    }
+
+    /**
+     * Returns the number of callers of
+     * {@linkplain #saveFileFromStream(javax.activation.DataHandler, java.lang.String)}
+     * that are waiting for another thread to finish saving the same file.
+     */
+    static int getWaitingSaveCount() {
+        return waitingSaves.get();
+    }
+
+    /**
+     * Releases a dataHandler that will not be read. A StreamingDataHandler is
+     * closed so that any data that has not been transferred is discarded.
+     */
+    private static void discard(DataHandler dataHandler) {
+        if (dataHandler instanceof StreamingDataHandler) {
+            try {
+                ((StreamingDataHandler) dataHandler).close();
+            } catch (IOException ex) {
+                // Nothing more can be done with the dataHandler
+            }
+        }
+    }
+
+    /**
+     * Saves the data stream from the dataHandler to the documents cache. The
+     * caller must not hold the write lock for the file.
+     *
+     * @param dataHandler The dataHandler representing the file.
+     * @param fileName The sanitized file name.
+     * @return The file name.
+     */
+    private static String saveToCache(DataHandler dataHandler, String fileName) {
+        DocumentCache cache = getDocumentCache();
+        try {
+            // The content must be read to determine its hash if the cache stores documents 
+            // by content or to compress it, so StreamingDataHandler.moveTo cannot be used. 
+            if (dataHandler instanceof StreamingDataHandler && !cache.isContentAddressed()
+                    && !isCompressible(fileName)) {
+                StreamingDataHandler sdh = (StreamingDataHandler) dataHandler;
+                if (!atomicCacheWrites) {
+                    moveToCache(cache, sdh, fileName);
+                } else {
+                    // Transfer the file before the lock is obtained so that a slow download
+                    // does not block access to other documents that share the lock.
+                    File tmpFile = cache.createTempFile(".sola");
+                    try {
+                        // Only the unique name is required. moveTo expects the file not to exist
+                        tmpFile.delete();
+                        try {
+                            sdh.moveTo(tmpFile);
+                        } finally {
+                            sdh.close();
+                        }
+                        publishToCache(cache, tmpFile, fileName, fileName,
+                                getChecksumToVerify(cache, tmpFile));
+                    } finally {
+                        deleteFile(tmpFile);
                     }
                 }
             } else {
-                writeFile(dataHandler.getInputStream(), file);
+                writeToCache(cache, dataHandler.getInputStream(), fileName);
             }
-            maintainCache(new File(getCachePath()), 0);
         } catch (Exception ex) {
             throw new SOLAException(ServiceMessage.GENERAL_UNEXPECTED_ERROR_DETAILS,
                     new Object[]{"Saving file " + fileName, ex.getLocalizedMessage(), ex});
@@ -599,6 +1430,101 @@ public class FileUtility {
         return fileName;
     }
 
+    /**
+     * Moves the file from the StreamingDataHandler directly to its location
+     * in the cache. Used if atomic cache writes are disabled. The write lock
+     * for the document is held while the file is transferred.
+     */
+    private static void moveToCache(DocumentCache cache, StreamingDataHandler sdh,
+            String fileName) throws IOException {
+        Lock lock = cache.getLock(fileName).writeLock();
+        lock.lock();
+        try {
+            invalidateMemoryTier(fileName);
+            cache.unlink(fileName);
+            // Remove the previous copy of the document, which may be compressed
+            cache.delete(fileName);
+            File file = cache.getStoredFile(fileName);
+            createParentDirectory(file);
+            try {
+                sdh.moveTo(file);
+            } finally {
+                sdh.close();
+            }
+            // Purge the cache before the new file is added to the index so that the
+            // new file is not selected for eviction. 
+            maintainCache(cache, fileName, file.length());
+            cache.put(fileName, file.length(), getChecksumToVerify(cache, file));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the checksum for a file that was moved into the cache by a
+     * StreamingDataHandler. The content is not read as it is transferred, so
+     * the file is read again to calculate the checksum. This is only done if
+     * cached files are verified.
+     *
+     * @return The CRC32 checksum of the file or
+     * {@linkplain CacheEntry#NO_CHECKSUM} if cached files are not verified.
+     */
+    private static long getChecksumToVerify(DocumentCache cache, File file) throws IOException {
+        if (cache.getVerification() == Verification.NONE) {
+            return CacheEntry.NO_CHECKSUM;
+        }
+        CheckedInputStream in = new CheckedInputStream(new FileInputStream(file), new CRC32());
+        BufferPool pool = copyBuffers;
+        ByteBuffer buf = pool.acquire();
+        try {
+            while (in.read(buf.array(), 0, buf.capacity()) != -1) {
+                // The checksum is updated as the file is read
+            }
+        } finally {
+            pool.release(buf);
+            in.close();
+        }
+        return in.getChecksum().getValue();
+    }
+
+    /**
+     * Renames a temporary file holding the content of a document into the
+     * cache and adds it to the cache index. The write lock for the document
+     * is only held while the file is renamed and the index is updated.
+     *
+     * @param cache The documents cache
+     * @param tmpFile The temporary file created by
+     * {@linkplain DocumentCache#createTempFile(java.lang.String)}.
+     * @param fileName The sanitized name of the document.
+     * @param storedName The name to store the file as (e.g. the compressed
+     * name of the document).
+     * @param checksum The CRC32 checksum of the document content.
+     * @return The file in the cache.
+     */
+    private static File publishToCache(DocumentCache cache, File tmpFile, String fileName,
+            String storedName, long checksum) throws IOException {
+        long length = tmpFile.length();
+        // Purge the cache before the new file is added to the index so that the new 
+        // file is not selected for eviction. 
+        maintainCache(cache, storedName, length);
+        Lock lock = cache.getLock(fileName).writeLock();
+        lock.lock();
+        try {
+            invalidateMemoryTier(fileName);
+            cache.unlink(fileName);
+            if (!storedName.equals(cache.resolve(fileName))) {
+                // Remove the previous copy of the document, which is stored in a different form
+                cache.delete(fileName);
+            }
+            File file = cache.getStoredFile(storedName);
+            publishFile(tmpFile, file, syncCacheWrites);
+            cache.put(storedName, length, checksum);
+            return file;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * Creates a {@linkplain DataHandler} for a file located on the local file
      * system. The file can be loaded from any accessible location.
@@ -608,9 +1534,12 @@ public class FileUtility {
      * located elsewhere, the full file pathname is required.
      */
     public static DataHandler getFileAsStream(String filePathName) {
-        File file = new File(getCachePath() + File.separator + filePathName);
+        DocumentCache cache = getDocumentCache();
+        File file = cache.getFile(filePathName);
         if (!file.exists()) {
             file = new File(filePathName);
+        } else if (DocumentCache.isCompressed(file.getName())) {
+            file = getPlainFileToOpen(cache, filePathName);
         }
         DataHandler result = null;
         if (file.exists()) {
@@ -652,12 +1581,11 @@ public class FileUtility {
         } else {
             fileName = sanitizeFileName(fileName, true);
         }
-        File file = new File(getCachePath() + File.separator + fileName);
+        DocumentCache cache = getDocumentCache();
+        File file = null;
         try {
-            // Check if the cache needs to have some documents purged
-            maintainCache(new File(getCachePath()), fileContent.length);
             // Write the file to disk
-            writeFile(new ByteArrayInputStream(fileContent), file);
+            file = writeToCache(cache, new ByteArrayInputStream(fileContent), fileName);
         } catch (IOException iex) {
             Object[] lstParams = {fileName, iex.getLocalizedMessage()};
             throw new SOLAException(ClientMessage.ERR_FAILED_CREATE_NEW_FILE, lstParams);
@@ -665,6 +1593,133 @@ public class FileUtility {
         return file;
     }
 
+    /**
+     * Writes the data from an input stream to a file in the documents cache.
+     * The data is streamed to disk in chunks, so the file can be any size.
+     * The fileName is sanitized before the new file is written. This method
+     * closes the input stream once the write is completed.
+     *
+     * @param in The input stream to write to the file system
+     * @param fileName The name to use for the new file. That file name may
+     * change due to sanitization. If the fileName is null, a random file name
+     * will be used.
+     * @return The new file in the cache or null if the input stream is null.
+     */
+    public static File writeFileToCache(InputStream in, String fileName) {
+        if (in == null) {
+            return null;
+        }
+        if (fileName == null) {
+            fileName = generateFileName();
+        } else {
+            fileName = sanitizeFileName(fileName, true);
+        }
+        DocumentCache cache = getDocumentCache();
+        try {
+            return writeToCache(cache, in, fileName);
+        } catch (IOException iex) {
+            Object[] lstParams = {fileName, iex.getLocalizedMessage()};
+            throw new SOLAException(ClientMessage.ERR_FAILED_CREATE_NEW_FILE, lstParams);
+        }
+    }
+
+    /**
+     * Writes the data from a channel to a file in the documents cache. This
+     * method closes the channel once the write is completed.
+     *
+     * @param in The channel to write to the file system
+     * @param fileName The name to use for the new file.
+     * @return The new file in the cache or null if the channel is null.
+     * @see #writeFileToCache(java.io.InputStream, java.lang.String)
+     */
+    public static File writeFileToCache(ReadableByteChannel in, String fileName) {
+        return in == null ? null : writeFileToCache(Channels.newInputStream(in), fileName);
+    }
+
+    /**
+     * Opens a channel to read a file from the documents cache. The file is
+     * read in chunks as the caller reads from the channel so the file can be
+     * any size. The caller must close the channel.
+     *
+     * @param fileName The name of the file to read. The fileName will be
+     * sanitized.
+     * @return The channel or null if the file is not in the cache.
+     */
+    public static ReadableByteChannel openFileChannelFromCache(String fileName) {
+        fileName = sanitizeFileName(fileName, true);
+        DocumentCache cache = getDocumentCache();
+        File file = cache.getFile(fileName);
+        try {
+            InputStream in = openCachedFile(file);
+            ReadableByteChannel result = in instanceof FileInputStream
+                    ? ((FileInputStream) in).getChannel() : Channels.newChannel(in);
+            cache.touch(fileName);
+            cache.getMetrics().recordHit(false);
+            return result;
+        } catch (FileNotFoundException ex) {
+            cache.removeIfMissing(fileName);
+            cache.getMetrics().recordMiss();
+            return null;
+        }
+    }
+
+    /**
+     * Streams a file in the documents cache to the output stream. The file is
+     * copied in chunks so the file can be any size.
+     *
+     * @param fileName The name of the file to read. The fileName will be
+     * sanitized.
+     * @param out The output stream to write the file to. The stream is not
+     * closed.
+     * @return The number of bytes written to the output stream.
+     */
+    public static long readFileFromCache(String fileName, OutputStream out) {
+        fileName = sanitizeFileName(fileName, true);
+        DocumentCache cache = getDocumentCache();
+        File file = cache.getFile(fileName);
+        CacheEntry entry = checkCachedFile(cache, fileName) ? cache.getEntryToVerify(fileName) : null;
+        // A read lock is only required if files are written directly into the cache
+        Lock lock = atomicCacheWrites ? null : cache.getLock(fileName).readLock();
+        if (lock != null) {
+            lock.lock();
+        }
+        long result;
+        boolean corrupt = false;
+        try {
+            if (entry != null || DocumentCache.isCompressed(file.getName())) {
+                CheckedInputStream in = new CheckedInputStream(openCachedFile(file), new CRC32());
+                try {
+                    result = copyStream(in, out);
+                } finally {
+                    in.close();
+                }
+                corrupt = entry != null && !cache.verify(entry, in.getChecksum().getValue());
+            } else {
+                result = transferFile(file, out);
+            }
+        } catch (IOException ex) {
+            if (ex instanceof FileNotFoundException) {
+                cache.removeIfMissing(fileName);
+            }
+            throw new SOLAException(ServiceMessage.GENERAL_UNEXPECTED_ERROR_DETAILS,
+                    new String[]{"File could not be read from cache", ex.getLocalizedMessage()});
+        } finally {
+            if (lock != null) {
+                lock.unlock();
+            }
+        }
+        if (corrupt) {
+            // The data has already been written to the output stream, so the caller must
+            // be told to discard it. 
+            removeCorruptFile(cache, fileName, entry);
+            throw new SOLAException(ServiceMessage.GENERAL_UNEXPECTED_ERROR_DETAILS,
+                    new String[]{"File could not be read from cache", "The file is corrupt"});
+        }
+        cache.touch(fileName);
+        cache.getMetrics().recordHit(false);
+        return result;
+    }
+
     /**
      * Reads a file in the documents cache into a byte array for further
      * processing.
@@ -675,9 +1730,81 @@ public class FileUtility {
      */
     public static byte[] readFileFromCache(String fileName) {
         fileName = sanitizeFileName(fileName, true);
-        File file = new File(getCachePath() + File.separator + fileName);
+        DocumentCache cache = getDocumentCache();
+        MemoryCacheTier tier = memoryTier;
+        long version = 0;
+        if (tier != null) {
+            byte[] result = tier.get(fileName);
+            if (result != null) {
+                cache.touch(fileName);
+                cache.getMetrics().recordHit(true);
+                return result;
+            }
+            version = tier.getVersion(fileName);
+        }
+        File file = cache.getFile(fileName);
+        CacheEntry entry = checkCachedFile(cache, fileName) ? cache.getEntryToVerify(fileName) : null;
+        // A read lock is only required if files are written directly into the cache
+        Lock lock = atomicCacheWrites ? null : cache.getLock(fileName).readLock();
+        if (lock != null) {
+            lock.lock();
+        }
+        byte[] result;
         try {
-            return readFile(file);
+            result = readCachedFile(file);
+        } catch (IOException ex) {
+            throw new SOLAException(ServiceMessage.GENERAL_UNEXPECTED_ERROR_DETAILS,
+                    new String[]{"File could not be read from cache", ex.getLocalizedMessage()});
+        } finally {
+            if (lock != null) {
+                lock.unlock();
+            }
+        }
+        if (result != null && entry != null) {
+            CRC32 crc = new CRC32();
+            crc.update(result);
+            if (!cache.verify(entry, crc.getValue())) {
+                removeCorruptFile(cache, fileName, entry);
+                result = null;
+            }
+        }
+        if (result != null) {
+            cache.touch(fileName);
+            cache.getMetrics().recordHit(false);
+            if (tier != null) {
+                tier.put(fileName, result, version);
+            }
+        } else {
+            cache.removeIfMissing(fileName);
+            cache.getMetrics().recordMiss();
+        }
+        return result;
+    }
+
+    /**
+     * Returns a read only memory mapped buffer for a file in the documents
+     * cache. Large documents can be accessed from the buffer without copying
+     * the file content onto the Java heap.
+     *
+     * @param fileName The name of the file to read. The fileName will be
+     * sanitized.
+     * @return The mapped buffer or null if the file is not in the cache.
+     * @see #getFileBuffer(java.lang.String)
+     */
+    public static ByteBuffer readFileBufferFromCache(String fileName) {
+        fileName = sanitizeFileName(fileName, true);
+        DocumentCache cache = getDocumentCache();
+        File file = cache.getFile(fileName);
+        if (!file.exists()) {
+            cache.removeIfMissing(fileName);
+            cache.getMetrics().recordMiss();
+            return null;
+        }
+        try {
+            ByteBuffer result = mapFile(getPlainFile(cache, fileName));
+            cache.touch(fileName);
+            cache.getMetrics().recordHit(false);
+            return result;
         } catch (IOException ex) {
             throw new SOLAException(ServiceMessage.GENERAL_UNEXPECTED_ERROR_DETAILS,
                     new String[]{"File could not be read from cache", ex.getLocalizedMessage()});
@@ -685,31 +1812,102 @@ public class FileUtility {
     }
 
     /**
-     * Writes the data from an input stream to the specified file using buffered
-     * 8KB chunks. This method closes the input stream once the write is
-     * completed.
+     * Transfers a file from the documents cache to the target channel without
+     * copying the file content into the Java heap.
+     *
+     * @param fileName The name of the file to transfer. The fileName will be
+     * sanitized.
+     * @param target The channel to write the file content to. The channel is
+     * not closed.
+     * @return The number of bytes transferred.
+     * @see #transferFile(java.io.File, java.nio.channels.WritableByteChannel)
+     */
+    public static long transferFileFromCache(String fileName, WritableByteChannel target) {
+        fileName = sanitizeFileName(fileName, true);
+        DocumentCache cache = getDocumentCache();
+        File file = cache.getFile(fileName);
+        try {
+            long result;
+            if (DocumentCache.isCompressed(file.getName())) {
+                InputStream in = openCachedFile(file);
+                try {
+                    result = copyStream(in, Channels.newOutputStream(target));
+                } finally {
+                    in.close();
+                }
+            } else {
+                result = transferFile(file, target);
+            }
+            cache.touch(fileName);
+            cache.getMetrics().recordHit(false);
+            return result;
+        } catch (IOException ex) {
+            if (ex instanceof FileNotFoundException) {
+                cache.removeIfMissing(fileName);
+            }
+            throw new SOLAException(ServiceMessage.GENERAL_UNEXPECTED_ERROR_DETAILS,
+                    new String[]{"File could not be read from cache", ex.getLocalizedMessage()});
+        }
+    }
+
+    /**
+     * Writes the data from an input stream to the specified file using pooled
+     * buffers (8KB by default). If the input stream is a
+     * {@linkplain FileInputStream}, the data is transferred directly between
+     * the file channels so that it is not copied into the Java heap. Any data
+     * the channel transfer does not copy (e.g. from a pipe or device) is
+     * copied using the buffers. This method closes the input stream once the
+     * write is completed.
      *
      * @param in The InputStream to write
      * @param file The file to write the input stream to
      * @throws IOException If an IO error occurs while attempting to write the
      * file.
+     * @see #setCopyBufferSize(int, int)
      */
     public static void writeFile(InputStream in, File file) throws IOException {
         if (file == null || in == null) {
             // Nothing to write
             return;
         }
-        OutputStream out = null;
+        FileOutputStream out = null;
         try {
             deleteFile(file);
             file.setLastModified(DateUtility.now().getTime());
             out = new FileOutputStream(file);
-            // Use an 8K buffer for writing the file. This is usually the most effecient 
-            // buffer size. 
-            byte[] buf = new byte[8 * 1024];
-            int len;
-            while ((len = in.read(buf)) != -1) {
-                out.write(buf, 0, len);
+            FileChannel outChannel = out.getChannel();
+            FileChannel inChannel = in instanceof FileInputStream
+                    ? ((FileInputStream) in).getChannel() : null;
+            // The size is 0 for pipes and devices, which cannot be transferred this way
+            if (inChannel != null && inChannel.size() > 0) {
+                long size = inChannel.size() - inChannel.position();
+                long position = 0;
+                // transferFrom may not transfer all of the requested bytes in one call
+                while (position < size) {
+                    long count = outChannel.transferFrom(inChannel, position, size - position);
+                    if (count <= 0) {
+                        break;
+                    }
+                    position += count;
+                }
+                // Copy anything that was not transferred (e.g. if the file has grown) using 
+                // the buffer. The input channel position has been advanced past the data 
+                // that was transferred. 
+                outChannel.position(position);
+            }
+            BufferPool pool = copyBuffers;
+            ByteBuffer buf = pool.acquire();
+            try {
+                int len;
+                while ((len = in.read(buf.array(), 0, buf.capacity())) != -1) {
+                    buf.limit(len);
+                    while (buf.hasRemaining()) {
+                        outChannel.write(buf);
+                    }
+                    buf.clear();
+                }
+            } finally {
+                pool.release(buf);
             }
             out.flush();
         } finally {
@@ -722,6 +1920,244 @@ public class FileUtility {
         }
     }
 
+    /**
+     * Writes the data from an input stream to a temporary file and then
+     * renames the temporary file to the specified file. The temporary file is
+     * created in the same directory as the target file so the rename is
+     * atomic on most platforms. This ensures that the file is only visible
+     * once all of the data has been written. This method closes the input
+     * stream once the write is completed.
+     *
+     * <p>Note that on Windows an existing file must be deleted before the new
+     * file can be renamed, so there is a short period where the file does not
+     * exist.</p>
+     *
+     * @param in The InputStream to write
+     * @param file The file to write the input stream to
+     * @param sync If true, the data is forced to disk before the temporary
+     * file is renamed.
+     * @throws IOException If an IO error occurs while attempting to write the
+     * file.
+     */
+    public static void writeFileAtomic(InputStream in, File file, boolean sync) throws IOException {
+        if (file == null || in == null) {
+            // Nothing to write
+            return;
+        }
+        File tmpFile = createTempFile(file);
+        try {
+            writeFile(in, tmpFile);
+            publishFile(tmpFile, file, sync);
+        } finally {
+            deleteFile(tmpFile);
+        }
+    }
+
+    /**
+     * Creates a temporary file in the same directory as the file.
+     */
+    private static File createTempFile(File file) throws IOException {
+        createParentDirectory(file);
+        File dir = file.getAbsoluteFile().getParentFile();
+        return File.createTempFile(".sola", DocumentCache.TEMP_FILE_SUFFIX, dir);
+    }
+
+    /**
+     * Creates the directory for the file if it does not exist. Files in a
+     * sharded documents cache are stored in subdirectories that are created
+     * as required.
+     */
+    private static void createParentDirectory(File file) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory()) {
+            dir.mkdirs();
+        }
+    }
+
+    /**
+     * Forces the content of the file to disk.
+     */
+    private static void syncFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Renames the temporary file to replace the target file.
+     *
+     * @param tmpFile The temporary file that has been written.
+     * @param file The file to replace.
+     * @param sync If true, the temporary file is forced to disk before it is
+     * renamed.
+     * @throws IOException If the temporary file could not be renamed.
+     */
+    private static void publishFile(File tmpFile, File file, boolean sync) throws IOException {
+        if (sync) {
+            syncFile(tmpFile);
+        }
+        tmpFile.setLastModified(DateUtility.now().getTime());
+        createParentDirectory(file);
+        if (!tmpFile.renameTo(file)) {
+            // Windows will not rename over an existing file
+            deleteFile(file);
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Unable to rename " + tmpFile.getName()
+                        + " to " + file.getName());
+            }
+        }
+    }
+
+    /**
+     * Writes the data from an input stream to the documents cache and adds
+     * the new file to the cache index. The CRC32 checksum of the file is
+     * calculated as the data is written so the file does not need to be read
+     * a second time.
+     *
+     * <p>If atomic cache writes are enabled, the data is written to a
+     * temporary file without holding the write lock for the document, so a
+     * slow transfer does not block access to other documents that share the
+     * lock. The lock is only held while the temporary file is renamed into
+     * the cache and the index is updated. Otherwise the lock is held while
+     * the data is written directly to the cache file.</p>
+     *
+     * <p>If the cache stores documents by content, the data is written to a
+     * temporary file while its SHA-256 hash is calculated. If a file with the
+     * same content is already in the cache, the temporary file is discarded
+     * and the document is mapped to the existing file.</p>
+     *
+     * <p>If the document extension is configured for compression, the data
+     * is compressed as it is written. The checksum and hash are calculated
+     * from the uncompressed data.</p>
+     *
+     * <p>The caller must not hold the write lock for the document.</p>
+     *
+     * @param cache The documents cache
+     * @param in The InputStream to write
+     * @param fileName The sanitized name of the document.
+     * @return The file in the cache holding the document content.
+     * @throws IOException If an IO error occurs while attempting to write the
+     * file.
+     */
+    private static File writeToCache(DocumentCache cache, InputStream in, String fileName)
+            throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(in, new CRC32());
+        boolean compress = isCompressible(fileName);
+        String storedName = compress ? DocumentCache.getCompressedName(fileName) : fileName;
+        if (!cache.isContentAddressed()) {
+            InputStream data = compress ? new DeflaterInputStream(checked) : checked;
+            if (!atomicCacheWrites) {
+                return writeInPlace(cache, data, checked, fileName, storedName);
+            }
+            File tmpFile = cache.createTempFile(".sola");
+            try {
+                writeFile(data, tmpFile);
+                return publishToCache(cache, tmpFile, fileName, storedName,
+                        checked.getChecksum().getValue());
+            } finally {
+                deleteFile(tmpFile);
+            }
+        }
+
+        DigestInputStream digestIn;
+        try {
+            digestIn = new DigestInputStream(checked, MessageDigest.getInstance("SHA-256"));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex.getLocalizedMessage());
+        }
+        File tmpFile = cache.createTempFile(".sola");
+        try {
+            writeFile(compress ? new DeflaterInputStream(digestIn) : digestIn, tmpFile);
+            String contentName = DocumentCache.getContentName(
+                    digestIn.getMessageDigest().digest(), getFileExtension(fileName));
+            long length = tmpFile.length();
+            if (!cache.contains(contentName)) {
+                // Purge the cache before the new file is added to the index so that the new 
+                // file is not selected for eviction. 
+                maintainCache(cache, compress ? DocumentCache.getCompressedName(contentName)
+                        : contentName, length);
+            }
+            Lock lock = cache.getLock(fileName).writeLock();
+            lock.lock();
+            try {
+                invalidateMemoryTier(fileName);
+                // Use the existing content file if there is one, whether or not it is compressed.
+                // The link fails if the content file has been deleted by another thread.
+                String existing = cache.contains(contentName) ? cache.resolve(contentName) : null;
+                if (existing != null && cache.link(fileName, existing)) {
+                    return cache.getStoredFile(existing);
+                }
+                if (compress) {
+                    contentName = DocumentCache.getCompressedName(contentName);
+                }
+                if (syncCacheWrites) {
+                    syncFile(tmpFile);
+                }
+                return cache.addContent(fileName, contentName, tmpFile,
+                        checked.getChecksum().getValue());
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            deleteFile(tmpFile);
+        }
+    }
+
+    /**
+     * Writes the data directly to the cache file while holding the write lock
+     * for the document. Used if atomic cache writes are disabled.
+     */
+    private static File writeInPlace(DocumentCache cache, InputStream data,
+            CheckedInputStream checked, String fileName, String storedName) throws IOException {
+        Lock lock = cache.getLock(fileName).writeLock();
+        lock.lock();
+        try {
+            invalidateMemoryTier(fileName);
+            cache.unlink(fileName);
+            // Remove the previous copy of the document, which may be stored in a different form
+            cache.delete(fileName);
+            File file = cache.getStoredFile(storedName);
+            createParentDirectory(file);
+            writeFile(data, file);
+            // Purge the cache before the new file is added to the index so that the
+            // new file is not selected for eviction. 
+            maintainCache(cache, storedName, file.length());
+            cache.put(storedName, file.length(), checked.getChecksum().getValue());
+            return file;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads a file in the cache into a byte array. The content is
+     * decompressed if the file is compressed.
+     *
+     * @return The content of the file or null if the file does not exist.
+     */
+    private static byte[] readCachedFile(File file) throws IOException {
+        if (!DocumentCache.isCompressed(file.getName())) {
+            return readFile(file);
+        }
+        if (!file.exists()) {
+            return null;
+        }
+        // Start with the compressed size and let the buffer grow as the content is 
+        // inflated rather than reserving space for a guessed compression ratio. 
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(32, Math.min(
+                file.length(), Integer.MAX_VALUE - 8)));
+        InputStream in = openCachedFile(file);
+        try {
+            copyStream(in, out);
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
     /**
      * Reads a file from the file system into a byte array.
      *
@@ -775,8 +2211,15 @@ public class FileUtility {
      */
     public static void deleteFileFromCache(String fileName) {
         fileName = sanitizeFileName(fileName, true);
-        File file = new File(getCachePath() + File.separator + fileName);
-        deleteFile(file);
+        DocumentCache cache = getDocumentCache();
+        Lock lock = cache.getLock(fileName).writeLock();
+        lock.lock();
+        try {
+            invalidateMemoryTier(fileName);
+            cache.delete(fileName);
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -787,7 +2230,7 @@ public class FileUtility {
      */
     public static void printFile(String tmpFileName) {
         String fileName = sanitizeFileName(tmpFileName, true);
-        printFile(new File(getCachePath() + File.separator + fileName));
+        printFile(getPlainFileToOpen(getDocumentCache(), fileName));
     }
     
     /**
@@ -804,7 +2247,7 @@ public class FileUtility {
         if (isExecutable(fileName)) {
             // Make sure the extension is changed before opening the file. 
             fileName = setTmpExtension(fileName);
-            File nonExeFile = new File(getCachePath() + File.separator + fileName);
+            File nonExeFile = new File(file.getParentFile(), fileName);
             file.renameTo(nonExeFile);
             file = nonExeFile;
         }
@@ -112,6 +112,14 @@ public class NetworkFolder {
         return folder;
     }
 
+    /**
+     * Returns true if the folder is a network file share or false if it is
+     * on the local file system.
+     */
+    public boolean isNetworkFolder() {
+        return isNetworkFolder;
+    }
+
     /**
      * Returns a network folder representing the specified subfolder. Also
      * creates the subfolder if it doesn't exist.
@@ -0,0 +1,86 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Base class for eviction policies that can rank the cache entries by
+ * comparing them with each other. Entries that compare lower are evicted
+ * first.
+ *
+ * @author soladev
+ */
+public abstract class AbstractEvictionPolicy implements EvictionPolicy {
+
+    /**
+     * Compares two cache entries. Returns a negative value if e1 should be
+     * evicted before e2.
+     */
+    protected abstract int compare(CacheEntry e1, CacheEntry e2);
+
+    @Override
+    public void recordInsert(CacheEntry entry) {
+    }
+
+    @Override
+    public void recordAccess(CacheEntry entry) {
+    }
+
+    @Override
+    public void recordAdmission(CacheEntry incoming, Collection<CacheEntry> entries) {
+    }
+
+    @Override
+    public void recordEviction(CacheEntry entry) {
+    }
+
+    @Override
+    public List<CacheEntry> orderForEviction(Collection<CacheEntry> entries) {
+        List<CacheEntry> result = new ArrayList<CacheEntry>(entries);
+        Collections.sort(result, new Comparator<CacheEntry>() {
+
+            @Override
+            public int compare(CacheEntry e1, CacheEntry e2) {
+                return AbstractEvictionPolicy.this.compare(e1, e2);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Compares two long values.
+     */
+    protected static int compareLong(long l1, long l2) {
+        return (l1 > l2 ? 1 : (l1 == l2 ? 0 : -1));
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.cache;
+
+/**
+ * Holds the index details for a single file in the documents cache. The
+ * {@linkplain DocumentCache} keeps one CacheEntry per cached file so that the
+ * cache size and eviction order can be determined without reading the cache
+ * directory.
+ *
+ * <p>The fields of a CacheEntry may be updated by multiple threads. Use the
+ * copy constructor to obtain a consistent snapshot of the entry.</p>
+ *
+ * @author soladev
+ */
+public class CacheEntry {
+
+    /**
+     * Value used for the checksum if it is not known for the entry.
+     */
+    public static final long NO_CHECKSUM = -1;
+    private final String name;
+    private volatile long size;
+    private volatile long lastModified;
+    private volatile long lastAccessed;
+    private volatile long checksum = NO_CHECKSUM;
+    private volatile long accessCount = 0;
+    private volatile double priority = 0;
+    private volatile boolean verified = false;
+
+    public CacheEntry(String name, long size, long lastModified) {
+        this.name = name;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.lastAccessed = lastModified;
+    }
+
+    /**
+     * Creates a copy of the entry.
+     *
+     * @param entry The entry to copy.
+     */
+    public CacheEntry(CacheEntry entry) {
+        this.name = entry.name;
+        this.size = entry.size;
+        this.lastModified = entry.lastModified;
+        this.lastAccessed = entry.lastAccessed;
+        this.checksum = entry.checksum;
+        this.accessCount = entry.accessCount;
+        this.priority = entry.priority;
+        this.verified = entry.verified;
+    }
+
+    /**
+     * The name of the file in the documents cache.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The size of the file in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    /**
+     * The time the file was written to the cache in milliseconds.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * The last time the file was accessed from the cache in milliseconds.
+     */
+    public long getLastAccessed() {
+        return lastAccessed;
+    }
+
+    public void setLastAccessed(long lastAccessed) {
+        this.lastAccessed = lastAccessed;
+    }
+
+    /**
+     * The number of times the file has been accessed from the cache.
+     */
+    public long getAccessCount() {
+        return accessCount;
+    }
+
+    public void setAccessCount(long accessCount) {
+        this.accessCount = accessCount;
+    }
+
+    /**
+     * Records an access to the file by updating the last accessed time and
+     * incrementing the access count.
+     */
+    public synchronized void recordAccess() {
+        lastAccessed = System.currentTimeMillis();
+        accessCount++;
+    }
+
+    /**
+     * A value used by the {@linkplain EvictionPolicy} to rank the entry for
+     * eviction. The meaning of the value depends on the eviction policy.
+     */
+    public double getPriority() {
+        return priority;
+    }
+
+    public void setPriority(double priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * The CRC32 checksum of the file content or {@linkplain #NO_CHECKSUM} if
+     * the checksum is not known.
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(long checksum) {
+        this.checksum = checksum;
+    }
+
+    /**
+     * Indicates if the file content has been verified against the checksum
+     * since the entry was created.
+     */
+    public boolean isVerified() {
+        return verified;
+    }
+
+    public void setVerified(boolean verified) {
+        this.verified = verified;
+    }
+}
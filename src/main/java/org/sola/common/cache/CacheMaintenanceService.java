@@ -0,0 +1,142 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.cache;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Trims the documents cache on a background thread so that files do not need
+ * to be deleted from the cache while the user waits for a document to be
+ * saved. A trim is requested when the cache exceeds its high watermark (the
+ * maximum cache size) and the background thread deletes files in batches
+ * until the cache is reduced to the low watermark (the resized cache size).
+ *
+ * <p>Multiple requests made while a trim is pending are coalesced into a
+ * single trim. Use {@linkplain #trimNow(long, int)} to trim the cache on the
+ * calling thread, e.g. if disk space is critically low.</p>
+ *
+ * @author soladev
+ */
+public class CacheMaintenanceService {
+
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    private final DocumentCache cache;
+    private final ExecutorService executor;
+    private final AtomicBoolean trimPending = new AtomicBoolean(false);
+    private final Object trimLock = new Object();
+    private volatile long lowWatermark;
+    private volatile int minEntries;
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * Creates a maintenance service for the documents cache. The background
+     * thread is a daemon thread so it will not prevent the application from
+     * exiting.
+     *
+     * @param cache The documents cache to maintain.
+     */
+    public CacheMaintenanceService(DocumentCache cache) {
+        this.cache = cache;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SOLA Cache Maintenance");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * The maximum number of files to delete in each batch. Default is 50.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Requests the cache is trimmed on the background thread. Does nothing if
+     * a trim is already pending.
+     *
+     * @param lowWatermark The size in bytes to reduce the cache to.
+     * @param minEntries The minimum number of files to leave in the cache.
+     */
+    public void requestTrim(long lowWatermark, int minEntries) {
+        this.lowWatermark = lowWatermark;
+        this.minEntries = minEntries;
+        if (trimPending.compareAndSet(false, true)) {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    // Clear the flag before trimming so any request made during the
+                    // trim will trigger another pass. 
+                    trimPending.set(false);
+                    trimNow(CacheMaintenanceService.this.lowWatermark,
+                            CacheMaintenanceService.this.minEntries);
+                }
+            });
+        }
+    }
+
+    /**
+     * Trims the cache on the calling thread. Files are deleted in batches
+     * until the cache is reduced to the low watermark. The index is refreshed
+     * first to pick up any changes made to the cache directory by other
+     * processes.
+     *
+     * @param lowWatermark The size in bytes to reduce the cache to.
+     * @param minEntries The minimum number of files to leave in the cache.
+     * @return The number of bytes removed from the cache.
+     */
+    public long trimNow(long lowWatermark, int minEntries) {
+        long total = 0;
+        synchronized (trimLock) {
+            cache.refresh();
+            long removed = 1;
+            while (removed > 0 && cache.getTotalSize() >= lowWatermark) {
+                removed = cache.trim(lowWatermark, minEntries, batchSize);
+                total += removed;
+                Thread.yield();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Stops the background thread. Any pending trim is discarded.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,275 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import org.sola.common.logging.LogUtility;
+
+/**
+ * Records the hit, miss, write and eviction metrics for a
+ * {@linkplain DocumentCache}. The metrics can be obtained as a
+ * {@linkplain CacheStatistics} snapshot or monitored through JMX once the
+ * metrics have been registered using {@linkplain #registerMBean()}.
+ *
+ * @author soladev
+ */
+public class CacheMetrics implements CacheMetricsMBean {
+
+    /**
+     * The JMX object name used to register the documents cache metrics. The
+     * cache directory is added as the directory key so the metrics for each
+     * cache are registered separately.
+     */
+    public static final String MBEAN_NAME = "org.sola.common:type=DocumentCache";
+    private final DocumentCache cache;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong memoryHitCount = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong bytesEvicted = new AtomicLong();
+    private final AtomicLong corruptionCount = new AtomicLong();
+    private final AtomicLong evictionPauseCount = new AtomicLong();
+    private final AtomicLong totalEvictionPauseMillis = new AtomicLong();
+    private final AtomicLong maxEvictionPauseMillis = new AtomicLong();
+    private final AtomicLongArray pauseHistogram =
+            new AtomicLongArray(CacheStatistics.PAUSE_BUCKET_LIMITS_MS.length + 1);
+
+    CacheMetrics(DocumentCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Records a request for a document that was found in the cache.
+     *
+     * @param fromMemory True if the document was served from the in memory
+     * tier.
+     */
+    public void recordHit(boolean fromMemory) {
+        hitCount.incrementAndGet();
+        if (fromMemory) {
+            memoryHitCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a request for a document that was not found in the cache.
+     */
+    public void recordMiss() {
+        missCount.incrementAndGet();
+    }
+
+    void recordWrite(long bytes) {
+        bytesWritten.addAndGet(bytes);
+    }
+
+    void recordEviction(long bytes) {
+        evictionCount.incrementAndGet();
+        bytesEvicted.addAndGet(bytes);
+    }
+
+    /**
+     * Records that a cached file failed verification and was removed from
+     * the cache.
+     */
+    public void recordCorruption() {
+        corruptionCount.incrementAndGet();
+    }
+
+    void recordEvictionPause(long millis) {
+        evictionPauseCount.incrementAndGet();
+        totalEvictionPauseMillis.addAndGet(millis);
+        long max = maxEvictionPauseMillis.get();
+        while (millis > max && !maxEvictionPauseMillis.compareAndSet(max, millis)) {
+            max = maxEvictionPauseMillis.get();
+        }
+        int bucket = 0;
+        while (bucket < CacheStatistics.PAUSE_BUCKET_LIMITS_MS.length
+                && millis > CacheStatistics.PAUSE_BUCKET_LIMITS_MS[bucket]) {
+            bucket++;
+        }
+        pauseHistogram.incrementAndGet(bucket);
+    }
+
+    /**
+     * Returns a snapshot of the current metrics.
+     */
+    public CacheStatistics getStatistics() {
+        return new CacheStatistics(getHitCount(), getMissCount(), getMemoryHitCount(),
+                getBytesWritten(), getEvictionCount(), getBytesEvicted(), getCorruptionCount(),
+                getEvictionPauseCount(),
+                getTotalEvictionPauseMillis(), getMaxEvictionPauseMillis(),
+                getEvictionPauseHistogram(), getCurrentSizeBytes(), getEntryCount());
+    }
+
+    /**
+     * Returns the JMX object name for the metrics of this cache.
+     */
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        return new ObjectName(MBEAN_NAME + ",directory="
+                + ObjectName.quote(cache.getDirectory().getAbsolutePath()));
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server so they can be
+     * monitored through JMX. Any metrics previously registered for the same
+     * cache directory are replaced.
+     *
+     * @see #unregisterMBean()
+     */
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = getObjectName();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (Exception ex) {
+            // JMX may not be available or permitted. The metrics can still be obtained 
+            // using getStatistics.
+            LogUtility.log("Unable to register cache metrics - " + ex.getMessage(), Level.FINE);
+        }
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server. Does nothing if the
+     * metrics are not registered.
+     */
+    public void unregisterMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = getObjectName();
+            if (server.isRegistered(name) && server.isInstanceOf(name, getClass().getName())) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception ex) {
+            LogUtility.log("Unable to unregister cache metrics - " + ex.getMessage(),
+                    Level.FINE);
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public long getMemoryHitCount() {
+        return memoryHitCount.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = getHitCount();
+        long total = hits + getMissCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    public long getBytesEvicted() {
+        return bytesEvicted.get();
+    }
+
+    @Override
+    public long getCorruptionCount() {
+        return corruptionCount.get();
+    }
+
+    @Override
+    public long getEvictionPauseCount() {
+        return evictionPauseCount.get();
+    }
+
+    @Override
+    public long getTotalEvictionPauseMillis() {
+        return totalEvictionPauseMillis.get();
+    }
+
+    @Override
+    public long getMaxEvictionPauseMillis() {
+        return maxEvictionPauseMillis.get();
+    }
+
+    @Override
+    public long[] getEvictionPauseHistogram() {
+        long[] result = new long[pauseHistogram.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = pauseHistogram.get(i);
+        }
+        return result;
+    }
+
+    @Override
+    public long getCurrentSizeBytes() {
+        return cache.getTotalSize();
+    }
+
+    @Override
+    public int getEntryCount() {
+        return cache.getEntryCount();
+    }
+
+    @Override
+    public void reset() {
+        hitCount.set(0);
+        missCount.set(0);
+        memoryHitCount.set(0);
+        bytesWritten.set(0);
+        evictionCount.set(0);
+        bytesEvicted.set(0);
+        corruptionCount.set(0);
+        evictionPauseCount.set(0);
+        totalEvictionPauseMillis.set(0);
+        maxEvictionPauseMillis.set(0);
+        for (int i = 0; i < pauseHistogram.length(); i++) {
+            pauseHistogram.set(i, 0);
+        }
+    }
+}
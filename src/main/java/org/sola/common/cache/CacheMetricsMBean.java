@@ -0,0 +1,81 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.cache;
+
+/**
+ * JMX management interface for the documents cache metrics. Allows the cache
+ * hit rate, eviction activity and size to be monitored with JConsole or
+ * another JMX client.
+ *
+ * @author soladev
+ * @see CacheMetrics
+ */
+public interface CacheMetricsMBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getMemoryHitCount();
+
+    double getHitRatio();
+
+    long getBytesWritten();
+
+    long getEvictionCount();
+
+    long getBytesEvicted();
+
+    /**
+     * The number of cached files that were removed because they failed
+     * verification.
+     */
+    long getCorruptionCount();
+
+    long getEvictionPauseCount();
+
+    long getTotalEvictionPauseMillis();
+
+    long getMaxEvictionPauseMillis();
+
+    /**
+     * The number of eviction pauses in each histogram bucket. See
+     * {@linkplain CacheStatistics#PAUSE_BUCKET_LIMITS_MS} for the bucket
+     * limits.
+     */
+    long[] getEvictionPauseHistogram();
+
+    long getCurrentSizeBytes();
+
+    int getEntryCount();
+
+    /**
+     * Resets all of the counters to zero.
+     */
+    void reset();
+}
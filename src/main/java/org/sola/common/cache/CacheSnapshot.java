@@ -0,0 +1,210 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A compact binary snapshot of the documents cache index. The snapshot is
+ * written when the application shuts down and is read when the cache is
+ * first used so that the cache index can be loaded without listing the cache
+ * directory.
+ *
+ * <p>The snapshot records the last modified time of the cache directory. The
+ * snapshot is only valid if the cache directory has not been modified since
+ * the snapshot was written (i.e. no files have been added, removed or
+ * renamed).</p>
+ *
+ * <p>Format: magic (int), version (int), directory last modified (long),
+ * sharded (boolean), entry count (int) followed by each entry as name length (short), name
+ * (UTF-8), size, last modified, last accessed, access count and checksum (all
+ * long).</p>
+ *
+ * @author soladev
+ */
+class CacheSnapshot {
+
+    private static final int MAGIC = 0x534F4C43; // SOLC
+    private static final int VERSION = 2;
+    private static final String ENCODING = "UTF-8";
+    private final long directoryModified;
+    private final boolean sharded;
+    private final List<CacheEntry> entries;
+
+    private CacheSnapshot(long directoryModified, boolean sharded, List<CacheEntry> entries) {
+        this.directoryModified = directoryModified;
+        this.sharded = sharded;
+        this.entries = entries;
+    }
+
+    /**
+     * The last modified time of the cache directory when the snapshot was
+     * written.
+     */
+    long getDirectoryModified() {
+        return directoryModified;
+    }
+
+    /**
+     * The entries in the snapshot.
+     */
+    List<CacheEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns true if the cache directory has not been modified since the
+     * snapshot was written and the files are stored in the same layout.
+     */
+    boolean isValidFor(File directory, boolean sharded) {
+        return directoryModified != 0 && directoryModified == directory.lastModified()
+                && this.sharded == sharded;
+    }
+
+    /**
+     * Returns the snapshot file for the cache directory. The snapshot is
+     * stored beside the cache directory rather than in it so that writing the
+     * snapshot does not modify the cache directory.
+     */
+    static File getSnapshotFile(File directory) {
+        File absolute = directory.getAbsoluteFile();
+        return new File(absolute.getParentFile(), absolute.getName() + ".idx");
+    }
+
+    /**
+     * Reads the snapshot. The snapshot file is read into a single buffer
+     * rather than being memory mapped, as Windows will not delete or replace
+     * a file while it is mapped.
+     *
+     * @param file The snapshot file.
+     * @return The snapshot or null if the file does not exist or is not a
+     * valid snapshot.
+     */
+    static CacheSnapshot read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                ByteBuffer buf = ByteBuffer.allocate((int) channel.size());
+                while (buf.hasRemaining()) {
+                    if (channel.read(buf) < 0) {
+                        return null;
+                    }
+                }
+                buf.flip();
+                if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                    return null;
+                }
+                long directoryModified = buf.getLong();
+                boolean sharded = buf.get() != 0;
+                int count = buf.getInt();
+                List<CacheEntry> entries = new ArrayList<CacheEntry>(count);
+                byte[] nameBytes = new byte[256];
+                for (int i = 0; i < count; i++) {
+                    int len = buf.getShort() & 0xffff;
+                    if (len > nameBytes.length) {
+                        nameBytes = new byte[len];
+                    }
+                    buf.get(nameBytes, 0, len);
+                    CacheEntry entry = new CacheEntry(new String(nameBytes, 0, len, ENCODING),
+                            buf.getLong(), buf.getLong());
+                    entry.setLastAccessed(buf.getLong());
+                    entry.setAccessCount(buf.getLong());
+                    entry.setChecksum(buf.getLong());
+                    entries.add(entry);
+                }
+                return new CacheSnapshot(directoryModified, sharded, entries);
+            } finally {
+                raf.close();
+            }
+        } catch (BufferUnderflowException ex) {
+            // The snapshot is truncated
+            return null;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the snapshot file. The snapshot is written to a temporary file
+     * that is then renamed to the snapshot file.
+     *
+     * @param file The snapshot file.
+     * @param directory The cache directory.
+     * @param sharded True if the cache files are stored in shard
+     * subdirectories.
+     * @param entries The entries to write to the snapshot.
+     * @throws IOException If the snapshot could not be written.
+     */
+    static void write(File file, File directory, boolean sharded, Collection<CacheEntry> entries)
+            throws IOException {
+        File tmpFile = new File(file.getPath() + DocumentCache.TEMP_FILE_SUFFIX);
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile), 64 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(directory.lastModified());
+            out.writeBoolean(sharded);
+            out.writeInt(entries.size());
+            for (CacheEntry entry : entries) {
+                byte[] name = entry.getName().getBytes(ENCODING);
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeLong(entry.getSize());
+                out.writeLong(entry.getLastModified());
+                out.writeLong(entry.getLastAccessed());
+                out.writeLong(entry.getAccessCount());
+                out.writeLong(entry.getChecksum());
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            file.delete();
+            if (!tmpFile.renameTo(file)) {
+                tmpFile.delete();
+                throw new IOException("Unable to rename " + tmpFile.getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.cache;
+
+/**
+ * A point in time snapshot of the documents cache metrics.
+ *
+ * @author soladev
+ * @see CacheMetrics#getStatistics()
+ */
+public class CacheStatistics {
+
+    /**
+     * The upper limit (inclusive) in milliseconds of each eviction pause
+     * histogram bucket. The final bucket of the histogram counts the pauses
+     * that exceed the last limit.
+     */
+    public static final long[] PAUSE_BUCKET_LIMITS_MS = {1, 5, 10, 50, 100, 500, 1000, 5000};
+    private final long hitCount;
+    private final long missCount;
+    private final long memoryHitCount;
+    private final long bytesWritten;
+    private final long evictionCount;
+    private final long bytesEvicted;
+    private final long corruptionCount;
+    private final long evictionPauseCount;
+    private final long totalEvictionPauseMillis;
+    private final long maxEvictionPauseMillis;
+    private final long[] evictionPauseHistogram;
+    private final long currentSizeBytes;
+    private final int entryCount;
+
+    public CacheStatistics(long hitCount, long missCount, long memoryHitCount,
+            long bytesWritten, long evictionCount, long bytesEvicted, long corruptionCount,
+            long evictionPauseCount,
+            long totalEvictionPauseMillis, long maxEvictionPauseMillis,
+            long[] evictionPauseHistogram, long currentSizeBytes, int entryCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.memoryHitCount = memoryHitCount;
+        this.bytesWritten = bytesWritten;
+        this.evictionCount = evictionCount;
+        this.bytesEvicted = bytesEvicted;
+        this.corruptionCount = corruptionCount;
+        this.evictionPauseCount = evictionPauseCount;
+        this.totalEvictionPauseMillis = totalEvictionPauseMillis;
+        this.maxEvictionPauseMillis = maxEvictionPauseMillis;
+        this.evictionPauseHistogram = evictionPauseHistogram.clone();
+        this.currentSizeBytes = currentSizeBytes;
+        this.entryCount = entryCount;
+    }
+
+    /**
+     * The number of requests for a document that was found in the cache.
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * The number of requests for a document that was not in the cache.
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * The number of hits that were served from the in memory tier.
+     */
+    public long getMemoryHitCount() {
+        return memoryHitCount;
+    }
+
+    /**
+     * The ratio of hits to total requests or 0 if there have been no
+     * requests.
+     */
+    public double getHitRatio() {
+        long total = hitCount + missCount;
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * The total number of bytes written to the cache.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * The number of files evicted from the cache.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * The total number of bytes evicted from the cache.
+     */
+    public long getBytesEvicted() {
+        return bytesEvicted;
+    }
+
+    /**
+     * The number of cached files that were removed because they failed
+     * verification.
+     */
+    public long getCorruptionCount() {
+        return corruptionCount;
+    }
+
+    /**
+     * The number of times the cache has been trimmed.
+     */
+    public long getEvictionPauseCount() {
+        return evictionPauseCount;
+    }
+
+    /**
+     * The total time spent trimming the cache in milliseconds.
+     */
+    public long getTotalEvictionPauseMillis() {
+        return totalEvictionPauseMillis;
+    }
+
+    /**
+     * The longest time taken to trim the cache in milliseconds.
+     */
+    public long getMaxEvictionPauseMillis() {
+        return maxEvictionPauseMillis;
+    }
+
+    /**
+     * The number of cache trims in each pause histogram bucket.
+     *
+     * @see #PAUSE_BUCKET_LIMITS_MS
+     */
+    public long[] getEvictionPauseHistogram() {
+        return evictionPauseHistogram.clone();
+    }
+
+    /**
+     * The size of the cache in bytes at the time of the snapshot.
+     */
+    public long getCurrentSizeBytes() {
+        return currentSizeBytes;
+    }
+
+    /**
+     * The number of files in the cache at the time of the snapshot.
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d, misses=%d, memoryHits=%d, hitRatio=%.3f, bytesWritten=%d, "
+                + "evictions=%d, bytesEvicted=%d, corruptions=%d, evictionPauses=%d, "
+                + "totalPauseMs=%d, maxPauseMs=%d, sizeBytes=%d, entries=%d", hitCount, missCount,
+                memoryHitCount, getHitRatio(), bytesWritten, evictionCount, bytesEvicted,
+                corruptionCount, evictionPauseCount, totalEvictionPauseMillis,
+                maxEvictionPauseMillis, currentSizeBytes, entryCount);
+    }
+}
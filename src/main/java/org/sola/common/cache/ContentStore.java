@@ -0,0 +1,265 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.cache;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import org.sola.common.logging.LogUtility;
+
+/**
+ * Maps the names of cached documents to content files that are named using
+ * the hash of their content. Documents with identical content share the same
+ * content file. The number of documents referencing each content file is
+ * tracked so the content file is only deleted when it is no longer
+ * referenced.
+ *
+ * <p>The mappings are recorded in an append only journal file in the cache
+ * directory so they survive restarts. The journal is compacted when it is
+ * loaded and when the number of lines appended to the journal is
+ * significantly larger than the number of mappings.</p>
+ *
+ * @author soladev
+ */
+class ContentStore {
+
+    /**
+     * The name of the journal file. Files starting with . are not indexed by
+     * the {@linkplain DocumentCache}.
+     */
+    static final String JOURNAL_FILE_NAME = ".aliases";
+    private static final char LINK = '+';
+    private static final char UNLINK = '-';
+    private static final char SEPARATOR = '\t';
+    // The minimum number of journal lines before the journal is compacted
+    private static final int COMPACT_THRESHOLD = 1000;
+    private final File journalFile;
+    private final Map<String, String> aliases = new HashMap<String, String>();
+    private final Map<String, Set<String>> references = new HashMap<String, Set<String>>();
+    private Writer journal = null;
+    private int journalLines = 0;
+
+    /**
+     * Creates the content store and loads any existing mappings from the
+     * journal.
+     *
+     * @param directory The cache directory
+     */
+    ContentStore(File directory) {
+        journalFile = new File(directory, JOURNAL_FILE_NAME);
+        load();
+    }
+
+    /**
+     * Returns the name of the content file for the document or the document
+     * name if the document is not mapped to a content file.
+     */
+    synchronized String resolve(String name) {
+        String contentName = aliases.get(name);
+        return contentName == null ? name : contentName;
+    }
+
+    /**
+     * Returns true if the document is mapped to a content file.
+     */
+    synchronized boolean isLinked(String name) {
+        return aliases.containsKey(name);
+    }
+
+    /**
+     * Returns the number of documents that reference the content file.
+     */
+    synchronized int getReferenceCount(String contentName) {
+        Set<String> names = references.get(contentName);
+        return names == null ? 0 : names.size();
+    }
+
+    /**
+     * Returns the names of the documents that reference the content file.
+     */
+    synchronized Set<String> getReferences(String contentName) {
+        Set<String> names = references.get(contentName);
+        return names == null ? new HashSet<String>() : new HashSet<String>(names);
+    }
+
+    /**
+     * Maps the document to the content file.
+     *
+     * @return The name of the content file the document was previously mapped
+     * to if that content file is no longer referenced. Otherwise null.
+     */
+    synchronized String link(String name, String contentName) {
+        String old = addAlias(name, contentName);
+        appendJournal(LINK + name + SEPARATOR + contentName);
+        return old != null && !old.equals(contentName) && getReferenceCount(old) == 0 ? old : null;
+    }
+
+    /**
+     * Removes the mapping for the document.
+     *
+     * @return The name of the content file if it is no longer referenced by
+     * any document. Otherwise null.
+     */
+    synchronized String unlink(String name) {
+        String old = removeAlias(name);
+        if (old != null) {
+            appendJournal(UNLINK + name);
+        }
+        return old != null && getReferenceCount(old) == 0 ? old : null;
+    }
+
+    /**
+     * Removes all mappings to the content file. Used when the content file is
+     * evicted from the cache.
+     */
+    synchronized void unlinkContent(String contentName) {
+        Set<String> names = references.remove(contentName);
+        if (names != null) {
+            for (String name : names) {
+                aliases.remove(name);
+                appendJournal(UNLINK + name);
+            }
+        }
+    }
+
+    private String addAlias(String name, String contentName) {
+        String old = removeAlias(name);
+        aliases.put(name, contentName);
+        Set<String> names = references.get(contentName);
+        if (names == null) {
+            names = new HashSet<String>();
+            references.put(contentName, names);
+        }
+        names.add(name);
+        return old;
+    }
+
+    private String removeAlias(String name) {
+        String old = aliases.remove(name);
+        if (old != null) {
+            Set<String> names = references.get(old);
+            if (names != null) {
+                names.remove(name);
+                if (names.isEmpty()) {
+                    references.remove(old);
+                }
+            }
+        }
+        return old;
+    }
+
+    private void appendJournal(String line) {
+        try {
+            if (journal == null) {
+                journal = new FileWriter(journalFile, true);
+            }
+            journal.write(line);
+            journal.write('\n');
+            journal.flush();
+            journalLines++;
+            if (journalLines > Math.max(COMPACT_THRESHOLD, 2 * aliases.size())) {
+                close();
+                compact();
+            }
+        } catch (IOException ex) {
+            // The mappings are still held in memory so continue. They will be written 
+            // to the journal the next time it is compacted. 
+            LogUtility.log("Unable to update cache journal - " + ex.getMessage(), Level.WARNING);
+        }
+    }
+
+    /**
+     * Closes the journal file. The journal is opened again if the mappings
+     * are changed.
+     */
+    synchronized void close() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ex) {
+                LogUtility.log("Unable to close cache journal - " + ex.getMessage(),
+                        Level.WARNING);
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * Replays the journal and then rewrites it so that it only contains the
+     * current mappings.
+     */
+    private void load() {
+        if (!journalFile.exists()) {
+            return;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(journalFile));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int idx = line.indexOf(SEPARATOR);
+                    if (line.length() > 1 && line.charAt(0) == LINK && idx > 1) {
+                        addAlias(line.substring(1, idx), line.substring(idx + 1));
+                    } else if (line.length() > 1 && line.charAt(0) == UNLINK) {
+                        removeAlias(line.substring(1));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            compact();
+        } catch (IOException ex) {
+            LogUtility.log("Unable to load cache journal - " + ex.getMessage(), Level.WARNING);
+        }
+    }
+
+    private void compact() throws IOException {
+        File tmpFile = new File(journalFile.getPath() + DocumentCache.TEMP_FILE_SUFFIX);
+        Writer writer = new FileWriter(tmpFile);
+        try {
+            for (Map.Entry<String, String> alias : aliases.entrySet()) {
+                writer.write(LINK + alias.getKey() + SEPARATOR + alias.getValue() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tmpFile.renameTo(journalFile)) {
+            journalFile.delete();
+            tmpFile.renameTo(journalFile);
+        }
+        journalLines = aliases.size();
+    }
+}
@@ -0,0 +1,1280 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In memory index of the files in the documents cache. The index is loaded
+ * from the cache directory the first time it is used and is then updated
+ * incrementally as files are written to and removed from the cache. This
+ * allows the total size of the cache to be obtained and files to be selected
+ * for eviction without listing the cache directory.
+ *
+ * <p>Files added to or removed from the cache directory by another process
+ * are detected by comparing the last modified time of the cache directory
+ * with the time recorded when the index was last updated. See
+ * {@linkplain #refresh()}.</p>
+ *
+ * <p>The index can be saved as a snapshot using {@linkplain #saveSnapshot()}.
+ * If the cache directory has not changed since the snapshot was saved, the
+ * index is loaded from the snapshot instead of the cache directory. If the
+ * cache directory has changed, the directory is listed and the access
+ * details from the snapshot are merged into the index. The snapshot is
+ * deleted the first time the cache is modified so that a stale snapshot is
+ * not used if the application does not shut down cleanly.</p>
+ *
+ * <p>For very large caches the files can be spread across two levels of
+ * subdirectories named using the hash of the file name (e.g.
+ * {@code 3f/a2/doc.pdf}). This keeps the number of entries in each directory
+ * small. See {@linkplain #setSharded(boolean)}. Files are moved to the
+ * correct location when the index is loaded, so existing flat caches are
+ * migrated automatically.</p>
+ *
+ * <p>The order files are evicted from the cache is determined by the
+ * {@linkplain EvictionPolicy}. The default policy is
+ * {@linkplain LruEvictionPolicy}.</p>
+ *
+ * <p>The index can be used by multiple threads. Access to individual files is
+ * coordinated using {@linkplain #getLock(java.lang.String)}. Threads writing
+ * or deleting a file should hold the write lock for the document and threads
+ * reading the file should hold the read lock. The locks are held using the
+ * document name rather than the name of the compressed or content file.
+ * Files that are locked are skipped when the cache is trimmed.</p>
+ *
+ * <p>The cache can optionally store documents by content. In this mode each
+ * document is stored in a content file named using the SHA-256 hash of the
+ * document content and the document name is mapped to the content file.
+ * Documents with identical content (e.g. different row versions of the same
+ * scan) share a single content file. The methods of this class that accept a
+ * document name resolve the name to its content file where required.</p>
+ *
+ * <p>Documents can also be stored compressed. A compressed document is stored
+ * in a file named with the {@linkplain #COMPRESSED_SUFFIX} appended to the
+ * document (or content) name. The document name is resolved to the
+ * compressed file if there is no uncompressed file for the document in the
+ * cache.</p>
+ *
+ * @author soladev
+ */
+public class DocumentCache {
+
+    /**
+     * The verification performed when cached files are read.
+     */
+    public enum Verification {
+
+        /**
+         * Cached files are not verified.
+         */
+        NONE,
+        /**
+         * The size of each cached file is checked against the index. A
+         * sample of the reads of files that have not been verified are also
+         * verified against the checksum.
+         */
+        SAMPLED,
+        /**
+         * The size of each cached file is checked against the index and every
+         * read is verified against the checksum.
+         */
+        ALWAYS
+    }
+
+    /**
+     * The suffix used for temporary files that are written before they are
+     * renamed to their cached file name.
+     */
+    public static final String TEMP_FILE_SUFFIX = ".part";
+    /**
+     * The name of the subdirectory of the cache directory that holds the
+     * temporary files. See {@linkplain #createTempFile(java.lang.String)}.
+     */
+    public static final String TEMP_DIRECTORY_NAME = ".tmp";
+    /**
+     * The suffix used for files in the cache that hold Deflate compressed
+     * document content.
+     */
+    public static final String COMPRESSED_SUFFIX = ".deflate";
+    // Temporary files older than 1 hour are assumed to be left over from a crash
+    private static final long STALE_TEMP_FILE_MS = 60 * 60 * 1000;
+    private static final int SHARD_LEVELS = 2;
+
+    private final File directory;
+    private final ConcurrentHashMap<String, CacheEntry> entries =
+            new ConcurrentHashMap<String, CacheEntry>();
+    private final AtomicLong totalSize = new AtomicLong(0);
+    private volatile boolean loaded = false;
+    private volatile long directoryModified = 0;
+    private volatile EvictionPolicy evictionPolicy = new LruEvictionPolicy();
+    private final StripedLock locks = new StripedLock(64);
+    private volatile ContentStore contentStore = null;
+    private final ConcurrentLinkedQueue<CacheEntry> pendingDeletes =
+            new ConcurrentLinkedQueue<CacheEntry>();
+    private volatile boolean contentAddressed = false;
+    private volatile boolean sharded = false;
+    private final AtomicBoolean snapshotCurrent = new AtomicBoolean(false);
+    private volatile Verification verification = Verification.NONE;
+    private volatile int sampleRate = 1;
+    private final AtomicLong verifyCount = new AtomicLong(0);
+    private final CacheMetrics metrics = new CacheMetrics(this);
+    private volatile CacheRemovalListener removalListener = null;
+
+    /**
+     * Creates an index for the specified cache directory. The index is not
+     * loaded until it is first used.
+     *
+     * @param directory The documents cache directory.
+     */
+    public DocumentCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * The directory for the documents cache.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * The hit, miss, write and eviction metrics for the cache.
+     */
+    public CacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the listener to notify when documents are evicted from the cache
+     * or removed from the index because their files are missing or have been
+     * replaced by another process.
+     *
+     * @param removalListener The listener or null to remove the listener.
+     */
+    public void setRemovalListener(CacheRemovalListener removalListener) {
+        this.removalListener = removalListener;
+    }
+
+    /**
+     * Notifies the removal listener that the documents stored in a file have
+     * been removed from the cache.
+     *
+     * @param names The names of the documents.
+     */
+    private void fireRemoved(Set<String> names) {
+        CacheRemovalListener listener = removalListener;
+        if (listener != null) {
+            for (String name : names) {
+                listener.documentRemoved(name);
+            }
+        }
+    }
+
+    /**
+     * The policy used to select the files to evict from the cache.
+     */
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    /**
+     * Sets the policy used to select the files to evict from the cache. The
+     * policy is notified of all entries currently in the index.
+     *
+     * @param evictionPolicy The new eviction policy. Must not be null.
+     */
+    public void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+        this.evictionPolicy = evictionPolicy;
+        if (loaded) {
+            for (CacheEntry entry : entries.values()) {
+                evictionPolicy.recordInsert(entry);
+            }
+        }
+    }
+
+    /**
+     * Returns true if new documents should be stored by content.
+     */
+    public boolean isContentAddressed() {
+        return contentAddressed;
+    }
+
+    /**
+     * Indicates if new documents should be stored by content so that
+     * documents with identical content share the same file. Documents that
+     * are already cached are not affected.
+     *
+     * @param contentAddressed If true, new documents are stored by content.
+     * @see #link(java.lang.String, java.lang.String)
+     */
+    public void setContentAddressed(boolean contentAddressed) {
+        if (contentAddressed) {
+            getContentStore();
+        }
+        this.contentAddressed = contentAddressed;
+    }
+
+    /**
+     * Returns the verification performed when cached files are read.
+     */
+    public Verification getVerification() {
+        return verification;
+    }
+
+    /**
+     * Sets the verification to perform when cached files are read. Cached
+     * files can be left truncated or corrupt if the application crashes while
+     * a file is written. Verification allows such files to be detected so they
+     * can be removed from the cache and obtained again.
+     *
+     * @param verification The verification to perform.
+     * @param sampleRate Used with {@linkplain Verification#SAMPLED} to verify
+     * the checksum for 1 in every sampleRate reads of files that have not
+     * been verified.
+     */
+    public void setVerification(Verification verification, int sampleRate) {
+        this.sampleRate = Math.max(1, sampleRate);
+        this.verification = verification == null ? Verification.NONE : verification;
+    }
+
+    /**
+     * Checks the size of the cached file matches the size recorded in the
+     * index. This detects files that have been truncated. Always returns true
+     * if verification is not enabled or the file is not in the index.
+     *
+     * @param name The name of the document.
+     */
+    public boolean checkSize(String name) {
+        if (verification == Verification.NONE) {
+            return true;
+        }
+        CacheEntry entry = get(name);
+        return entry == null || locate(entry.getName()).length() == entry.getSize();
+    }
+
+    /**
+     * Returns the index entry for the document if the content read from the
+     * cache should be verified against the entry checksum or null if no
+     * verification is required for this read.
+     *
+     * @param name The name of the document.
+     */
+    public CacheEntry getEntryToVerify(String name) {
+        Verification v = verification;
+        if (v == Verification.NONE) {
+            return null;
+        }
+        CacheEntry entry = get(name);
+        if (entry == null || entry.getChecksum() == CacheEntry.NO_CHECKSUM) {
+            return null;
+        }
+        if (v == Verification.SAMPLED
+                && (entry.isVerified() || verifyCount.incrementAndGet() % sampleRate != 0)) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Compares the checksum calculated for content read from the cache with
+     * the checksum of the entry. The entry is marked as verified if the
+     * checksums match.
+     *
+     * @param entry The index entry obtained from
+     * {@linkplain #getEntryToVerify(java.lang.String)}.
+     * @param checksum The CRC32 checksum of the content read from the cache.
+     * @return true if the checksums match.
+     */
+    public boolean verify(CacheEntry entry, long checksum) {
+        if (entry.getChecksum() == checksum) {
+            entry.setVerified(true);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the cached files are stored in hash-sharded
+     * subdirectories.
+     */
+    public boolean isSharded() {
+        return sharded;
+    }
+
+    /**
+     * Indicates if the cached files should be stored in two levels of
+     * subdirectories named using the hash of the file name. This must be set
+     * before the cache is used. Any files that are not in the correct
+     * location are moved when the index is loaded.
+     *
+     * @param sharded If true, the cached files are stored in hash-sharded
+     * subdirectories.
+     * @throws IllegalStateException If the index has already been loaded.
+     */
+    public synchronized void setSharded(boolean sharded) {
+        if (loaded && sharded != this.sharded) {
+            throw new IllegalStateException("The documents cache is already loaded");
+        }
+        this.sharded = sharded;
+    }
+
+    /**
+     * Returns the path of the shard subdirectory for the file name relative
+     * to the cache directory. Uses the hash code of the name, which is
+     * defined by the String class and is therefore stable between runs.
+     *
+     * @param name The name of the cached file.
+     */
+    static String getShardPath(String name) {
+        int h = name.hashCode();
+        h ^= (h >>> 16);
+        return String.format("%02x%s%02x", (h >>> 8) & 0xff, File.separator, h & 0xff);
+    }
+
+    private static boolean isShardName(String name) {
+        return name.length() == 2 && Character.digit(name.charAt(0), 16) >= 0
+                && Character.digit(name.charAt(1), 16) >= 0;
+    }
+
+    /**
+     * Returns the location of the file in the cache directory.
+     */
+    private File locate(String name) {
+        if (sharded) {
+            return new File(new File(directory, getShardPath(name)), name);
+        }
+        return new File(directory, name);
+    }
+
+    /**
+     * Lists the files in the cache directory and any shard subdirectories.
+     */
+    private List<File> listCacheFiles() {
+        List<File> result = new ArrayList<File>();
+        listCacheFiles(directory, 0, result);
+        return result;
+    }
+
+    private void listCacheFiles(File dir, int level, List<File> result) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isFile()) {
+                result.add(f);
+            } else if (level < SHARD_LEVELS && isShardName(f.getName()) && f.isDirectory()) {
+                listCacheFiles(f, level + 1, result);
+            }
+        }
+    }
+
+    /**
+     * Moves a file to its correct location in the cache directory. Used to
+     * migrate files when sharding is switched on or off.
+     *
+     * @return The file at its correct location or null if it could not be
+     * moved.
+     */
+    private File migrate(File f) {
+        File target = locate(f.getName());
+        if (target.equals(f)) {
+            return f;
+        }
+        if (target.exists()) {
+            // The file has already been written to its correct location
+            f.delete();
+            return null;
+        }
+        target.getParentFile().mkdirs();
+        if (!f.renameTo(target)) {
+            return null;
+        }
+        if (!sharded) {
+            // Remove the shard subdirectories once they are empty
+            File dir = f.getParentFile();
+            while (!dir.equals(directory) && dir.delete()) {
+                dir = dir.getParentFile();
+            }
+        }
+        return target;
+    }
+
+    private synchronized ContentStore getContentStore() {
+        if (contentStore == null) {
+            contentStore = new ContentStore(directory);
+        }
+        return contentStore;
+    }
+
+    /**
+     * Returns the name to use for a content file.
+     *
+     * @param digest The SHA-256 digest of the content.
+     * @param extension The file extension of the document. Retained so the
+     * content file can be opened with the appropriate application.
+     */
+    public static String getContentName(byte[] digest, String extension) {
+        StringBuilder result = new StringBuilder(digest.length * 2 + 8);
+        for (byte b : digest) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        if (extension != null && !extension.isEmpty()) {
+            result.append('.').append(extension);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns true if the file in the cache holds compressed content.
+     *
+     * @param storedName The name of the file in the cache.
+     */
+    public static boolean isCompressed(String storedName) {
+        return storedName.endsWith(COMPRESSED_SUFFIX);
+    }
+
+    /**
+     * Returns the name to use for the file holding the compressed content of
+     * the document or content file.
+     *
+     * @param name The name of the document or content file.
+     */
+    public static String getCompressedName(String name) {
+        return name + COMPRESSED_SUFFIX;
+    }
+
+    /**
+     * Returns the name of the uncompressed document or content file for a
+     * compressed file.
+     *
+     * @param storedName The name of the compressed file in the cache.
+     */
+    public static String getUncompressedName(String storedName) {
+        return isCompressed(storedName)
+                ? storedName.substring(0, storedName.length() - COMPRESSED_SUFFIX.length())
+                : storedName;
+    }
+
+    /**
+     * Returns the name of the file in the cache directory that holds the
+     * content for the document. This is the document name unless the
+     * document is stored by content or is compressed.
+     *
+     * @param name The name of the document.
+     */
+    public String resolve(String name) {
+        load();
+        ContentStore store = contentStore;
+        String result = store == null ? name : store.resolve(name);
+        if (!entries.containsKey(result)) {
+            String compressedName = getCompressedName(result);
+            if (entries.containsKey(compressedName)) {
+                result = compressedName;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Maps the document to a content file that has been added to the cache
+     * using {@linkplain #put(java.lang.String, long, long)}. If the document
+     * was previously mapped to a different content file that is no longer
+     * referenced, that content file is deleted.
+     *
+     * <p>The document is not mapped if the content file is no longer in the
+     * index, e.g. because it was deleted by another thread when the last
+     * document referencing it was removed. The caller should then add the
+     * content file to the cache again using
+     * {@linkplain #addContent(java.lang.String, java.lang.String, java.io.File, long)}.</p>
+     *
+     * @param name The name of the document.
+     * @param contentName The name of the content file.
+     * @return false if the content file is not in the index.
+     */
+    public boolean link(String name, String contentName) {
+        ContentStore store = getContentStore();
+        String old;
+        // Content files are deleted while holding the store lock, so the content file
+        // cannot be deleted between the check and the mapping being added.
+        synchronized (store) {
+            if (!entries.containsKey(contentName)) {
+                return false;
+            }
+            old = store.link(name, contentName);
+        }
+        deleteContent(old);
+        deletePendingContent();
+        return true;
+    }
+
+    /**
+     * Moves a new content file into the cache, adds it to the index and maps
+     * the document to it. If the content file is already in the index, the
+     * document is mapped to the existing file and the new file is left for
+     * the caller to delete. This is done while holding the lock used to
+     * delete content files that are no longer referenced, so the content
+     * file cannot be deleted by another thread before the document is mapped
+     * to it.
+     *
+     * @param name The name of the document.
+     * @param contentName The name of the content file.
+     * @param tmpFile The file holding the content. It is renamed to the
+     * content file.
+     * @param checksum The CRC32 checksum of the content or
+     * {@linkplain CacheEntry#NO_CHECKSUM} if it is not known.
+     * @return The content file.
+     * @throws IOException If the file could not be renamed.
+     */
+    public File addContent(String name, String contentName, File tmpFile, long checksum)
+            throws IOException {
+        ContentStore store = getContentStore();
+        File file = locate(contentName);
+        String old;
+        synchronized (store) {
+            if (!entries.containsKey(contentName)) {
+                file.getParentFile().mkdirs();
+                if (!tmpFile.renameTo(file)) {
+                    // Windows will not rename over an existing file
+                    file.delete();
+                    if (!tmpFile.renameTo(file)) {
+                        throw new IOException("Unable to rename " + tmpFile.getName()
+                                + " to " + file.getName());
+                    }
+                }
+                put(contentName, file.length(), checksum);
+            }
+            old = store.link(name, contentName);
+        }
+        deleteContent(old);
+        deletePendingContent();
+        return file;
+    }
+
+    /**
+     * Removes the mapping between the document and its content file. The
+     * content file is deleted if it is no longer referenced by any document.
+     * Does nothing if the document is not stored by content.
+     *
+     * @param name The name of the document.
+     */
+    public void unlink(String name) {
+        ContentStore store = contentStore;
+        if (store != null && store.isLinked(name)) {
+            deleteContent(store.unlink(name));
+            deletePendingContent();
+        }
+    }
+
+    /**
+     * Deletes the document from the cache. If the document is stored by
+     * content, the content file is only deleted if it is not referenced by
+     * any other document.
+     *
+     * <p>If the file cannot be deleted (e.g. because it is open on Windows),
+     * the file is left in the index so the size of the cache remains
+     * accurate. The file will be evicted when the cache is next trimmed.</p>
+     *
+     * @param name The name of the document.
+     * @return false if the file could not be deleted.
+     */
+    public boolean delete(String name) {
+        ContentStore store = contentStore;
+        if (store != null && store.isLinked(name)) {
+            unlink(name);
+            return true;
+        }
+        return deleteStored(resolve(name));
+    }
+
+    /**
+     * Deletes the file from the cache directory and removes it from the
+     * index. The index entry is kept if the file exists but could not be
+     * deleted.
+     */
+    private boolean deleteStored(String storedName) {
+        File file = locate(storedName);
+        if (file.exists() && !file.delete()) {
+            return false;
+        }
+        remove(storedName);
+        return true;
+    }
+
+    /**
+     * Deletes a content file that is no longer referenced. The caller holds
+     * the write lock for a document, so the lock for the content file is not
+     * waited for as that could deadlock with a thread holding the locks in
+     * the opposite order. If the lock is not available, the content file is
+     * deleted later by {@linkplain #deletePendingContent()}.
+     *
+     * <p>The index entry of the content file is recorded so that a new copy
+     * of the same content written by another thread before the file is
+     * deleted is not deleted instead.</p>
+     */
+    private void deleteContent(String contentName) {
+        CacheEntry released = contentName == null ? null : entries.get(contentName);
+        if (released != null && !tryDeleteContent(released)) {
+            pendingDeletes.add(released);
+        }
+    }
+
+    /**
+     * Deletes the content files that could not be deleted earlier because
+     * they were locked. Content files that are locked are left for the next
+     * attempt.
+     */
+    private void deletePendingContent() {
+        int count = pendingDeletes.size();
+        for (int i = 0; i < count; i++) {
+            CacheEntry released = pendingDeletes.poll();
+            if (released == null) {
+                break;
+            }
+            if (!tryDeleteContent(released)) {
+                pendingDeletes.add(released);
+            }
+        }
+    }
+
+    /**
+     * @return false if the content file is locked.
+     */
+    private boolean tryDeleteContent(CacheEntry released) {
+        String contentName = released.getName();
+        Lock lock = getLock(getUncompressedName(contentName)).writeLock();
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            // The content may have been linked to another document or replaced by a new
+            // copy since it was released
+            ContentStore store = getContentStore();
+            synchronized (store) {
+                if (entries.get(contentName) == released
+                        && store.getReferenceCount(contentName) == 0) {
+                    deleteStored(contentName);
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the lock used to coordinate access to the cached file. The lock
+     * is shared with other file names, so it should only be held while the
+     * file is being read or written.
+     *
+     * @param name The name of the cached file.
+     */
+    public ReadWriteLock getLock(String name) {
+        return locks.get(name);
+    }
+
+    /**
+     * Returns the file in the cache directory that holds the content for the
+     * document. The file may not exist.
+     *
+     * @param name The (sanitized) name of the cached document.
+     */
+    public File getFile(String name) {
+        return locate(resolve(name));
+    }
+
+    /**
+     * Returns the location of a file in the cache directory. Unlike
+     * {@linkplain #getFile(java.lang.String)}, the name is not resolved, so
+     * this is used to locate content and compressed files by their stored
+     * name.
+     *
+     * @param storedName The name of the file in the cache.
+     */
+    public File getStoredFile(String storedName) {
+        return locate(storedName);
+    }
+
+    /**
+     * Creates a temporary file to write a document to before it is renamed
+     * into the cache. The file is created in a subdirectory of the cache
+     * directory so that it can be renamed into the cache without copying it.
+     * Creating and deleting files in the subdirectory does not change the
+     * last modified time of the cache directory, so the cache directory is
+     * not listed by {@linkplain #refresh()} each time a document is written.
+     *
+     * @param prefix The prefix for the name of the temporary file.
+     * @throws IOException If the file could not be created.
+     */
+    public File createTempFile(String prefix) throws IOException {
+        File dir = new File(directory, TEMP_DIRECTORY_NAME);
+        if (!dir.isDirectory()) {
+            dir.mkdirs();
+        }
+        return File.createTempFile(prefix, TEMP_FILE_SUFFIX, dir);
+    }
+
+    /**
+     * Deletes any temporary files left over from a crash.
+     */
+    private void deleteStaleTempFiles() {
+        File[] files = new File(directory, TEMP_DIRECTORY_NAME).listFiles();
+        if (files == null) {
+            return;
+        }
+        long staleTime = System.currentTimeMillis() - STALE_TEMP_FILE_MS;
+        for (File f : files) {
+            if (f.lastModified() < staleTime) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns true if the file name is for a temporary file that is being
+     * written to the cache directory.
+     *
+     * @param name The file name to check.
+     */
+    public static boolean isTempFile(String name) {
+        return name.endsWith(TEMP_FILE_SUFFIX);
+    }
+
+    /**
+     * Loads the index from the snapshot if it is valid or otherwise by
+     * listing the cache directory. This is only done once for the life of the
+     * index.
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (!loaded) {
+                deleteStaleTempFiles();
+                if (new File(directory, ContentStore.JOURNAL_FILE_NAME).exists()) {
+                    // Documents have been stored by content. Load the document mappings. 
+                    contentStore = new ContentStore(directory);
+                }
+                CacheSnapshot snapshot = CacheSnapshot.read(CacheSnapshot.getSnapshotFile(directory));
+                if (snapshot != null && snapshot.isValidFor(directory, sharded)) {
+                    for (CacheEntry entry : snapshot.getEntries()) {
+                        addEntry(entry);
+                    }
+                    directoryModified = snapshot.getDirectoryModified();
+                    snapshotCurrent.set(true);
+                    loaded = true;
+                    return;
+                }
+                // Retain the access details from the snapshot for any files still in the cache
+                Map<String, CacheEntry> previous = new HashMap<String, CacheEntry>();
+                if (snapshot != null) {
+                    for (CacheEntry entry : snapshot.getEntries()) {
+                        previous.put(entry.getName(), entry);
+                    }
+                }
+                long staleTime = System.currentTimeMillis() - STALE_TEMP_FILE_MS;
+                for (File f : listCacheFiles()) {
+                    if (isTempFile(f.getName())) {
+                        if (f.lastModified() < staleTime) {
+                            f.delete();
+                        }
+                    } else if (!f.getName().startsWith(".")) {
+                        f = migrate(f);
+                        if (f != null) {
+                            CacheEntry entry = new CacheEntry(f.getName(), f.length(), f.lastModified());
+                            CacheEntry old = previous.get(f.getName());
+                            if (old != null && old.getSize() == entry.getSize()
+                                    && old.getLastModified() == entry.getLastModified()) {
+                                entry.setLastAccessed(old.getLastAccessed());
+                                entry.setChecksum(old.getChecksum());
+                                entry.setAccessCount(old.getAccessCount());
+                            }
+                            addEntry(entry);
+                        }
+                    }
+                }
+                directoryModified = directory.lastModified();
+                loaded = true;
+            }
+        }
+    }
+
+    private void addEntry(CacheEntry entry) {
+        CacheEntry old = entries.put(entry.getName(), entry);
+        if (old != null) {
+            totalSize.addAndGet(-old.getSize());
+            entry.setAccessCount(old.getAccessCount());
+        }
+        totalSize.addAndGet(entry.getSize());
+        evictionPolicy.recordInsert(entry);
+    }
+
+    /**
+     * Saves a snapshot of the index so that it can be loaded quickly the next
+     * time the cache is used. Does nothing if the index has not been loaded.
+     * The snapshot is deleted the next time the cache is modified.
+     *
+     * @throws IOException If the snapshot could not be written.
+     */
+    public void saveSnapshot() throws IOException {
+        if (loaded) {
+            // Mark the snapshot as current before the entries are copied so that a change
+            // made while the snapshot is written is detected below
+            snapshotCurrent.set(true);
+            File file = CacheSnapshot.getSnapshotFile(directory);
+            CacheSnapshot.write(file, directory, sharded, new ArrayList<CacheEntry>(entries.values()));
+            if (!snapshotCurrent.get()) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Releases the resources held by the index. The content file journal is
+     * closed and the metrics are removed from JMX. The index can still be
+     * used after it is closed, but the journal will be opened again.
+     */
+    public void close() {
+        metrics.unregisterMBean();
+        ContentStore store = contentStore;
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    /**
+     * Returns the index entry for the cached file or null if the file is not
+     * in the index.
+     *
+     * @param name The name of the cached file.
+     */
+    public CacheEntry get(String name) {
+        load();
+        return entries.get(resolve(name));
+    }
+
+    /**
+     * Checks if the file is in the cache. The index is used, so the cache
+     * directory is not accessed. Files added to or removed from the cache
+     * directory by another process are found by {@linkplain #refresh()}. If
+     * a file in the index cannot be read, use
+     * {@linkplain #removeIfMissing(java.lang.String)} to correct the index.
+     *
+     * @param name The name of the cached file.
+     */
+    public boolean contains(String name) {
+        String storedName = resolve(name);
+        if (entries.containsKey(storedName)) {
+            return true;
+        }
+        ContentStore store = contentStore;
+        if (store != null && store.isLinked(name)) {
+            // The content file has been removed, so remove the document mapping as well
+            unlink(name);
+        }
+        return false;
+    }
+
+    /**
+     * Removes the file from the index if it no longer exists in the cache
+     * directory. Used when a file in the index could not be read because it
+     * was removed by another process.
+     *
+     * @param name The name of the document.
+     * @return true if the file was missing.
+     */
+    public boolean removeIfMissing(String name) {
+        String storedName = resolve(name);
+        if (locate(storedName).isFile()) {
+            return false;
+        }
+        Set<String> names = getDocumentNames(storedName);
+        names.add(name);
+        CacheEntry entry = entries.get(storedName);
+        if (entry != null && entries.remove(storedName, entry)) {
+            totalSize.addAndGet(-entry.getSize());
+        }
+        unlink(name);
+        fireRemoved(names);
+        return true;
+    }
+
+    /**
+     * Records that the cached file has been accessed. Used by the
+     * {@linkplain EvictionPolicy} to determine which files to keep in the
+     * cache.
+     *
+     * @param name The name of the cached file.
+     * @return The index entry for the file or null if the file is not in the
+     * index.
+     */
+    public CacheEntry touch(String name) {
+        CacheEntry entry = get(name);
+        if (entry != null) {
+            entry.recordAccess();
+            evictionPolicy.recordAccess(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Notifies the eviction policy that a new file is about to be added to
+     * the cache and files must be evicted to make room for it. This allows a
+     * policy such as {@linkplain TinyLfuEvictionPolicy} to decide if the new
+     * file should be kept in the cache. Call this before the cache is
+     * trimmed.
+     *
+     * @param name The name the new file will be stored as.
+     * @param size The size of the new file in bytes.
+     */
+    public void recordAdmission(String name, long size) {
+        evictionPolicy.recordAdmission(new CacheEntry(name, size, System.currentTimeMillis()),
+                getEntries());
+    }
+
+    /**
+     * Adds or replaces the index entry for a file that has been written to
+     * the cache. The last modified time of the file is recorded so the entry
+     * can be matched to the file when the index is next loaded.
+     *
+     * @param name The name of the cached file or content file.
+     * @param size The size of the file in bytes
+     * @param checksum The CRC32 checksum of the file or
+     * {@linkplain CacheEntry#NO_CHECKSUM} if it is not known.
+     * @return The new index entry.
+     */
+    public CacheEntry put(String name, long size, long checksum) {
+        load();
+        long modified = locate(name).lastModified();
+        CacheEntry entry = new CacheEntry(name, size,
+                modified == 0 ? System.currentTimeMillis() : modified);
+        entry.setChecksum(checksum);
+        addEntry(entry);
+        modified();
+        metrics.recordWrite(size);
+        return entry;
+    }
+
+    /**
+     * Removes the file from the index. Does not delete the file.
+     *
+     * @param name The name of the cached file.
+     */
+    public void remove(String name) {
+        load();
+        CacheEntry old = entries.remove(name);
+        if (old != null) {
+            totalSize.addAndGet(-old.getSize());
+        }
+        modified();
+    }
+
+    /**
+     * Records the cache directory has been modified by this index.
+     */
+    private void modified() {
+        directoryModified = directory.lastModified();
+        if (snapshotCurrent.compareAndSet(true, false)) {
+            CacheSnapshot.getSnapshotFile(directory).delete();
+        }
+    }
+
+    /**
+     * Updates the index with any files that have been added to, removed from
+     * or replaced in the cache directory by another process. The cache
+     * directory is only listed if its last modified time has changed since
+     * the index was last updated, so this method is cheap to call when the
+     * cache is not shared. If the cache is sharded, only changes that modify
+     * the top level cache directory are detected.
+     *
+     * <p>Files that are locked by another thread are not updated. The
+     * directory is listed again on the next refresh so they are updated once
+     * the lock is released. This method does not block waiting for file
+     * locks, so it can be called while holding other locks (e.g. by the
+     * {@linkplain CacheMaintenanceService}).</p>
+     *
+     * @return true if the cache directory was listed.
+     */
+    public boolean refresh() {
+        load();
+        long modified = directory.lastModified();
+        if (modified == directoryModified) {
+            return false;
+        }
+        directoryModified = modified;
+        boolean skipped = false;
+        Set<String> names = new HashSet<String>();
+        for (File f : listCacheFiles()) {
+            String name = f.getName();
+            if (!f.isFile() || isTempFile(name) || name.startsWith(".")) {
+                continue;
+            }
+            names.add(name);
+            CacheEntry entry = entries.get(name);
+            if (entry == null) {
+                entry = new CacheEntry(name, f.length(), f.lastModified());
+                if (entries.putIfAbsent(name, entry) == null) {
+                    totalSize.addAndGet(entry.getSize());
+                    evictionPolicy.recordInsert(entry);
+                }
+            } else if (entry.getSize() != f.length()) {
+                Set<String> documents = getDocumentNames(name);
+                List<Lock> held = tryLockDocuments(documents);
+                if (held != null) {
+                    try {
+                        if (entries.get(name) == entry && f.isFile()) {
+                            addEntry(new CacheEntry(name, f.length(), f.lastModified()));
+                            fireRemoved(documents);
+                        }
+                    } finally {
+                        for (Lock lock : held) {
+                            lock.unlock();
+                        }
+                    }
+                } else {
+                    skipped = true;
+                }
+            }
+        }
+        for (CacheEntry entry : entries.values()) {
+            // Check the file again in case it was written after the directory was listed
+            if (!names.contains(entry.getName()) && !getFile(entry.getName()).isFile()
+                    && entries.remove(entry.getName(), entry)) {
+                totalSize.addAndGet(-entry.getSize());
+                fireRemoved(getDocumentNames(entry.getName()));
+            }
+        }
+        if (skipped) {
+            // Force the directory to be listed again on the next refresh
+            directoryModified = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the total size of all files in the cache in bytes. The size is
+     * maintained as files are added to and removed from the cache, so the
+     * cache directory is not listed. Use {@linkplain #refresh()} to include
+     * changes made to the cache directory by other processes.
+     */
+    public long getTotalSize() {
+        load();
+        return totalSize.get();
+    }
+
+    /**
+     * Returns the number of files in the cache.
+     */
+    public int getEntryCount() {
+        load();
+        return entries.size();
+    }
+
+    /**
+     * Returns a snapshot of the entries in the index. The entries returned
+     * are copies so they will not change if the cached files are accessed.
+     */
+    public List<CacheEntry> getEntries() {
+        load();
+        List<CacheEntry> result = new ArrayList<CacheEntry>(entries.size());
+        for (CacheEntry entry : entries.values()) {
+            result.add(new CacheEntry(entry));
+        }
+        return result;
+    }
+
+    /**
+     * Deletes files from the cache until the total size of the cache is less
+     * than the target size or the minimum number of files remain in the cache.
+     * The files to delete are selected by the {@linkplain EvictionPolicy} using
+     * the index so the cache directory is not listed.
+     *
+     * @param targetSize The size in bytes to reduce the cache to.
+     * @param minEntries The minimum number of files to leave in the cache.
+     * @return The number of bytes removed from the cache.
+     */
+    public long trim(long targetSize, int minEntries) {
+        return trim(targetSize, minEntries, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Deletes files from the cache until the total size of the cache is less
+     * than the target size, the minimum number of files remain in the cache or
+     * the maximum number of files for the batch have been deleted. Files that
+     * are locked are skipped. A compressed or content file is locked if any
+     * document stored in the file is locked.
+     *
+     * @param targetSize The size in bytes to reduce the cache to.
+     * @param minEntries The minimum number of files to leave in the cache.
+     * @param batchSize The maximum number of files to delete.
+     * @return The number of bytes removed from the cache.
+     */
+    public long trim(long targetSize, int minEntries, int batchSize) {
+        long startTime = System.currentTimeMillis();
+        deletePendingContent();
+        EvictionPolicy policy = evictionPolicy;
+        List<CacheEntry> candidates = policy.orderForEviction(getEntries());
+        long removed = 0;
+        int numFiles = candidates.size();
+        int numDeleted = 0;
+        for (CacheEntry entry : candidates) {
+            if (numFiles < minEntries || getTotalSize() < targetSize
+                    || numDeleted >= batchSize) {
+                break;
+            }
+            Set<String> names = getDocumentNames(entry.getName());
+            List<Lock> held = tryLockDocuments(names);
+            if (held != null) {
+                try {
+                    if (evict(entry, names)) {
+                        fireRemoved(names);
+                        policy.recordEviction(entry);
+                        metrics.recordEviction(entry.getSize());
+                        removed += entry.getSize();
+                        numDeleted++;
+                    }
+                } finally {
+                    for (Lock lock : held) {
+                        lock.unlock();
+                    }
+                }
+            }
+            numFiles--;
+        }
+        if (numDeleted > 0) {
+            metrics.recordEvictionPause(System.currentTimeMillis() - startTime);
+        }
+        return removed;
+    }
+
+    /**
+     * Deletes a file selected for eviction and removes it from the index. The
+     * caller holds the locks for the documents stored in the file. Content
+     * files are deleted while holding the store lock so that a document
+     * cannot be linked to the content file while it is deleted.
+     *
+     * @param entry The entry selected for eviction.
+     * @param lockedNames The documents locked by the caller.
+     * @return false if the file has been replaced since the entries were
+     * ordered, is referenced by a document that is not locked or could not
+     * be deleted.
+     */
+    private boolean evict(CacheEntry entry, Set<String> lockedNames) {
+        ContentStore store = contentStore;
+        if (store == null) {
+            return deleteEvicted(entry);
+        }
+        synchronized (store) {
+            // Another document may have been linked to the content file after it was locked
+            if (!lockedNames.containsAll(store.getReferences(entry.getName()))
+                    || !deleteEvicted(entry)) {
+                return false;
+            }
+            store.unlinkContent(entry.getName());
+            return true;
+        }
+    }
+
+    private boolean deleteEvicted(CacheEntry entry) {
+        CacheEntry current = entries.get(entry.getName());
+        if (current == null || current.getLastModified() != entry.getLastModified()) {
+            return false;
+        }
+        File file = locate(entry.getName());
+        if (file.exists() && !file.delete()) {
+            return false;
+        }
+        remove(entry.getName());
+        return true;
+    }
+
+    /**
+     * Returns the names of the documents stored in the cached file. Readers
+     * and writers lock the document name, so these are the locks that must
+     * be held to delete or replace the file. This is the uncompressed name
+     * of the file and the names of any documents that reference the content
+     * file.
+     *
+     * @param storedName The name of the file in the cache.
+     */
+    private Set<String> getDocumentNames(String storedName) {
+        Set<String> names = new HashSet<String>();
+        names.add(getUncompressedName(storedName));
+        ContentStore store = contentStore;
+        if (store != null) {
+            names.addAll(store.getReferences(storedName));
+        }
+        return names;
+    }
+
+    /**
+     * Obtains the write locks for the documents without waiting.
+     *
+     * @param names The names of the documents. See
+     * {@linkplain #getDocumentNames(java.lang.String)}.
+     * @return The locks obtained or null if any of the documents are locked.
+     * Documents locked by the current thread are also treated as locked
+     * because the thread may be writing the file.
+     */
+    private List<Lock> tryLockDocuments(Set<String> names) {
+        List<Lock> held = new ArrayList<Lock>(names.size());
+        for (String name : names) {
+            ReadWriteLock rwLock = getLock(name);
+            Lock lock = rwLock.writeLock();
+            if (held.contains(lock)) {
+                // Another document in the same lock stripe
+                continue;
+            }
+            if (((ReentrantReadWriteLock) rwLock).isWriteLockedByCurrentThread()
+                    || !lock.tryLock()) {
+                for (Lock l : held) {
+                    l.unlock();
+                }
+                return null;
+            }
+            held.add(lock);
+        }
+        return held;
+    }
+}
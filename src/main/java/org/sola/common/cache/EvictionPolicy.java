@@ -0,0 +1,86 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.cache;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Determines the order files are evicted from the documents cache when the
+ * cache exceeds its maximum size. The {@linkplain DocumentCache} notifies the
+ * policy each time a file is added to or accessed from the cache so the policy
+ * can maintain any state it needs to rank the cache entries.
+ *
+ * @author soladev
+ * @see LruEvictionPolicy
+ * @see LfuEvictionPolicy
+ * @see GreedyDualSizeEvictionPolicy
+ * @see TinyLfuEvictionPolicy
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Called when a file is added to the cache index.
+     *
+     * @param entry The new cache entry.
+     */
+    void recordInsert(CacheEntry entry);
+
+    /**
+     * Called each time a file is accessed from the cache.
+     *
+     * @param entry The cache entry that was accessed.
+     */
+    void recordAccess(CacheEntry entry);
+
+    /**
+     * Called before a new file is added to the cache when files must be
+     * evicted to make room for it. The new file is not yet in the cache
+     * index. Allows a policy to decide if the new file should be kept in the
+     * cache or evicted ahead of the existing files.
+     *
+     * @param incoming An entry for the new file.
+     * @param entries The entries currently in the cache.
+     */
+    void recordAdmission(CacheEntry incoming, Collection<CacheEntry> entries);
+
+    /**
+     * Called when a file has been evicted from the cache.
+     *
+     * @param entry The cache entry that was evicted.
+     */
+    void recordEviction(CacheEntry entry);
+
+    /**
+     * Returns the entries ordered so that the first entry in the list is the
+     * first entry that should be evicted from the cache.
+     *
+     * @param entries The entries currently in the cache.
+     */
+    List<CacheEntry> orderForEviction(Collection<CacheEntry> entries);
+}
@@ -0,0 +1,98 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.cache;
+
+/**
+ * GreedyDual-Size eviction policy. Each entry is assigned a priority of
+ * <code>L + cost/size</code> when it is added or accessed where L is the
+ * priority of the last entry evicted. Entries with the lowest priority are
+ * evicted first. This favours keeping small, recently used files in the cache
+ * over large files that have not been used for some time.
+ *
+ * <p>The cost of loading each file is taken to be 1 by default, which
+ * maximises the number of cache hits. A cost based on the size of the file
+ * can be used to minimise the number of bytes that must be downloaded
+ * instead. In that case the policy behaves like LRU with aging.</p>
+ *
+ * @author soladev
+ */
+public class GreedyDualSizeEvictionPolicy extends AbstractEvictionPolicy {
+
+    private final boolean sizeIsCost;
+    private volatile double inflation = 0;
+
+    /**
+     * Creates a GreedyDual-Size policy using a cost of 1 for each file.
+     */
+    public GreedyDualSizeEvictionPolicy() {
+        this(false);
+    }
+
+    /**
+     * Creates a GreedyDual-Size policy.
+     *
+     * @param sizeIsCost If true, the cost of loading a file is assumed to be
+     * proportional to its size (i.e. minimise bytes downloaded). If false, each
+     * file has a cost of 1 (i.e. maximise cache hits).
+     */
+    public GreedyDualSizeEvictionPolicy(boolean sizeIsCost) {
+        this.sizeIsCost = sizeIsCost;
+    }
+
+    private void updatePriority(CacheEntry entry) {
+        double size = Math.max(1, entry.getSize());
+        double cost = sizeIsCost ? size : 1;
+        entry.setPriority(inflation + (cost / size));
+    }
+
+    @Override
+    public void recordInsert(CacheEntry entry) {
+        updatePriority(entry);
+    }
+
+    @Override
+    public void recordAccess(CacheEntry entry) {
+        updatePriority(entry);
+    }
+
+    @Override
+    public void recordEviction(CacheEntry entry) {
+        if (entry.getPriority() > inflation) {
+            inflation = entry.getPriority();
+        }
+    }
+
+    @Override
+    protected int compare(CacheEntry e1, CacheEntry e2) {
+        int result = Double.compare(e1.getPriority(), e2.getPriority());
+        if (result == 0) {
+            result = compareLong(e1.getLastAccessed(), e2.getLastAccessed());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.cache;
+
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size bounded in memory cache for small documents that sits in front of
+ * the documents cache on disk. Documents that are read repeatedly (e.g.
+ * signature images and one page forms) can be served from memory without
+ * accessing the file system. The least recently used documents are removed
+ * once the total size of the documents held in memory exceeds the byte
+ * budget.
+ *
+ * <p>Each document read from the tier is a copy of the content held in
+ * memory, so callers are free to modify it.</p>
+ *
+ * @author soladev
+ */
+public class MemoryCacheTier {
+
+    /**
+     * Determines how the document content is held in memory.
+     */
+    public enum Storage {
+
+        /**
+         * The content is held in byte arrays on the Java heap.
+         */
+        HEAP,
+        /**
+         * The content is held on the Java heap using soft references so that
+         * it can be reclaimed by the garbage collector if memory is low.
+         */
+        SOFT,
+        /**
+         * The content is held in direct buffers outside of the Java heap.
+         */
+        OFF_HEAP
+    }
+    private final long maxTotalBytes;
+    private final int maxEntryBytes;
+    private final Storage storage;
+    private final LinkedHashMap<String, Object> entries =
+            new LinkedHashMap<String, Object>(64, 0.75f, true);
+    private final Map<String, Integer> sizes = new HashMap<String, Integer>();
+    private long totalBytes = 0;
+    // Version numbers for the documents, shared between names with the same hash
+    private final long[] versions = new long[256];
+
+    /**
+     * Creates the memory tier.
+     *
+     * @param maxTotalBytes The maximum number of bytes to hold in memory.
+     * @param maxEntryBytes The maximum size of a document that can be held in
+     * memory.
+     * @param storage How the document content should be held in memory.
+     */
+    public MemoryCacheTier(long maxTotalBytes, int maxEntryBytes, Storage storage) {
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.storage = storage == null ? Storage.HEAP : storage;
+    }
+
+    /**
+     * Returns the version number for the document. The version changes each
+     * time the document is invalidated. Used to avoid adding content that was
+     * read from disk while the document was being replaced. Invalidating
+     * other documents does not usually change the version.
+     *
+     * @param name The name of the document.
+     */
+    public synchronized long getVersion(String name) {
+        return versions[versionIndex(name)];
+    }
+
+    /**
+     * Returns a copy of the document content or null if the document is not
+     * held in memory.
+     *
+     * @param name The name of the document.
+     */
+    public synchronized byte[] get(String name) {
+        Object value = entries.get(name);
+        byte[] result = null;
+        if (value instanceof byte[]) {
+            result = ((byte[]) value).clone();
+        } else if (value instanceof SoftReference) {
+            byte[] content = (byte[]) ((SoftReference<?>) value).get();
+            if (content == null) {
+                // The content has been reclaimed by the garbage collector
+                removeEntry(name);
+            } else {
+                result = content.clone();
+            }
+        } else if (value instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+            buffer.clear();
+            result = new byte[buffer.remaining()];
+            buffer.get(result);
+        }
+        return result;
+    }
+
+    /**
+     * Adds the document content to the tier if the document is small enough.
+     * The content is copied, so the caller is free to modify the array.
+     *
+     * @param name The name of the document.
+     * @param content The content of the document.
+     * @param version The version of the document obtained using
+     * {@linkplain #getVersion(java.lang.String)} before the content was read.
+     * The content is ignored if the document has been invalidated since then.
+     */
+    public synchronized void put(String name, byte[] content, long version) {
+        if (content == null || content.length > maxEntryBytes || content.length > maxTotalBytes
+                || version != versions[versionIndex(name)]) {
+            return;
+        }
+        removeEntry(name);
+        Object value;
+        switch (storage) {
+            case SOFT:
+                value = new SoftReference<byte[]>(content.clone());
+                break;
+            case OFF_HEAP:
+                ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+                buffer.put(content);
+                value = buffer;
+                break;
+            default:
+                value = content.clone();
+        }
+        entries.put(name, value);
+        sizes.put(name, content.length);
+        totalBytes += content.length;
+        // Remove the least recently used documents until the tier is within its budget
+        Iterator<String> it = entries.keySet().iterator();
+        while (totalBytes > maxTotalBytes && it.hasNext()) {
+            String eldest = it.next();
+            it.remove();
+            Integer size = sizes.remove(eldest);
+            totalBytes -= size == null ? 0 : size;
+        }
+    }
+
+    /**
+     * Removes the document from the tier.
+     *
+     * @param name The name of the document.
+     */
+    public synchronized void invalidate(String name) {
+        versions[versionIndex(name)]++;
+        removeEntry(name);
+    }
+
+    /**
+     * Removes all documents from the tier.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < versions.length; i++) {
+            versions[i]++;
+        }
+        entries.clear();
+        sizes.clear();
+        totalBytes = 0;
+    }
+
+    /**
+     * The number of bytes currently held in the tier.
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private int versionIndex(String name) {
+        int hash = name.hashCode();
+        hash ^= (hash >>> 16);
+        return hash & (versions.length - 1);
+    }
+
+    private void removeEntry(String name) {
+        if (entries.remove(name) != null) {
+            Integer size = sizes.remove(name);
+            totalBytes -= size == null ? 0 : size;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Adds TinyLFU admission to another eviction policy. The access frequency of
+ * each file is recorded in a compact {@linkplain FrequencySketch}. When the
+ * cache must be trimmed to make room for a new file, the new file is only
+ * admitted to the cache if it has been accessed more often than the first file
+ * the underlying policy would evict. Otherwise the new file is rejected. This
+ * prevents files that are only opened once from pushing frequently used files
+ * out of the cache.
+ *
+ * <p>The file must still be written to the cache so it can be used by the
+ * caller that requested it. A rejected file is therefore kept until room is
+ * needed for the next new file and is then evicted before any other file.</p>
+ *
+ * @author soladev
+ */
+public class TinyLfuEvictionPolicy implements EvictionPolicy {
+
+    private final EvictionPolicy policy;
+    private final FrequencySketch sketch;
+    private final Set<String> rejected =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile String lastRejected = null;
+
+    /**
+     * Creates a TinyLFU admission policy over an {@linkplain LruEvictionPolicy}.
+     */
+    public TinyLfuEvictionPolicy() {
+        this(new LruEvictionPolicy(), 10000);
+    }
+
+    /**
+     * Creates a TinyLFU admission policy.
+     *
+     * @param policy The policy used to rank the existing cache entries.
+     * @param expectedEntries The expected maximum number of files in the
+     * cache. Used to size the frequency sketch.
+     */
+    public TinyLfuEvictionPolicy(EvictionPolicy policy, int expectedEntries) {
+        this.policy = policy;
+        this.sketch = new FrequencySketch(expectedEntries);
+    }
+
+    @Override
+    public void recordInsert(CacheEntry entry) {
+        sketch.increment(entry.getName());
+        policy.recordInsert(entry);
+    }
+
+    @Override
+    public void recordAccess(CacheEntry entry) {
+        sketch.increment(entry.getName());
+        policy.recordAccess(entry);
+    }
+
+    @Override
+    public void recordAdmission(CacheEntry incoming, Collection<CacheEntry> entries) {
+        // Room is needed for a new file, so the file rejected last can now be evicted
+        String previous = lastRejected;
+        if (previous != null) {
+            rejected.add(previous);
+        }
+        String name = incoming.getName();
+        CacheEntry victim = null;
+        for (CacheEntry entry : policy.orderForEviction(entries)) {
+            if (!rejected.contains(entry.getName()) && !entry.getName().equals(name)) {
+                victim = entry;
+                break;
+            }
+        }
+        // The new file has not been recorded yet, so reject it unless it has been
+        // accessed more often than the victim
+        if (victim != null && sketch.frequency(name) < sketch.frequency(victim.getName())) {
+            lastRejected = name;
+        } else {
+            lastRejected = null;
+            rejected.remove(name);
+        }
+        policy.recordAdmission(incoming, entries);
+    }
+
+    @Override
+    public void recordEviction(CacheEntry entry) {
+        rejected.remove(entry.getName());
+        policy.recordEviction(entry);
+    }
+
+    @Override
+    public List<CacheEntry> orderForEviction(Collection<CacheEntry> entries) {
+        List<CacheEntry> result = policy.orderForEviction(entries);
+        if (rejected.isEmpty()) {
+            return result;
+        }
+        // Evict the rejected files first
+        List<CacheEntry> ordered = new ArrayList<CacheEntry>(result.size());
+        for (CacheEntry entry : result) {
+            if (rejected.contains(entry.getName())) {
+                ordered.add(entry);
+            }
+        }
+        for (CacheEntry entry : result) {
+            if (!rejected.contains(entry.getName())) {
+                ordered.add(entry);
+            }
+        }
+        return ordered;
+    }
+}
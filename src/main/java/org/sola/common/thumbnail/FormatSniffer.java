@@ -0,0 +1,169 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.thumbnail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Identifies the format of a document from the signature (magic bytes) at
+ * the start of the file rather than from the file extension. Only the first
+ * {@linkplain #HEADER_LENGTH} bytes of the file are read, so files that are
+ * not images or PDF documents can be rejected without attempting to decode
+ * them.
+ *
+ * @author soladev
+ */
+public final class FormatSniffer {
+
+    public static final String PDF = "pdf";
+    public static final String PNG = "png";
+    public static final String JPEG = "jpeg";
+    public static final String GIF = "gif";
+    public static final String BMP = "bmp";
+    public static final String TIFF = "tiff";
+    public static final String PSD = "psd";
+    public static final String ICO = "ico";
+    public static final String PNM = "pnm";
+    /**
+     * The number of bytes read from the start of the file to identify the
+     * format.
+     */
+    public static final int HEADER_LENGTH = 16;
+
+    private FormatSniffer() {
+    }
+
+    /**
+     * Returns the format of the file or null if the format is not recognized
+     * or the file cannot be read.
+     *
+     * @param file The file to check.
+     * @see #PDF
+     * @see #PNG
+     * @see #JPEG
+     * @see #GIF
+     * @see #BMP
+     * @see #TIFF
+     * @see #PSD
+     * @see #ICO
+     * @see #PNM
+     */
+    public static String sniff(File file) {
+        byte[] header = new byte[HEADER_LENGTH];
+        int length = 0;
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                int count;
+                while (length < header.length
+                        && (count = in.read(header, length, header.length - length)) > 0) {
+                    length += count;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            return null;
+        }
+        return sniff(header, length);
+    }
+
+    /**
+     * Returns the format indicated by the header bytes of a file or null if
+     * the format is not recognized.
+     *
+     * @param header The bytes from the start of the file.
+     * @param length The number of bytes in the header.
+     */
+    public static String sniff(byte[] header, int length) {
+        if (startsWith(header, length, 0x25, 0x50, 0x44, 0x46)) {
+            // %PDF
+            return PDF;
+        }
+        if (startsWith(header, length, 0x89, 0x50, 0x4E, 0x47, 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return PNG;
+        }
+        if (startsWith(header, length, 0xFF, 0xD8, 0xFF)) {
+            return JPEG;
+        }
+        if (startsWith(header, length, 0x47, 0x49, 0x46, 0x38)) {
+            // GIF87a or GIF89a
+            return GIF;
+        }
+        if (startsWith(header, length, 0x49, 0x49, 0x2A, 0x00)
+                || startsWith(header, length, 0x4D, 0x4D, 0x00, 0x2A)) {
+            // Little endian (II) or big endian (MM) TIFF
+            return TIFF;
+        }
+        if (startsWith(header, length, 0x42, 0x4D) && length >= 14) {
+            // BM followed by the file size. Check the reserved header fields are 0
+            // as many text files start with BM.
+            if (header[6] == 0 && header[7] == 0 && header[8] == 0 && header[9] == 0) {
+                return BMP;
+            }
+        }
+        if (startsWith(header, length, 0x38, 0x42, 0x50, 0x53)) {
+            // 8BPS
+            return PSD;
+        }
+        if ((startsWith(header, length, 0x00, 0x00, 0x01, 0x00)
+                || startsWith(header, length, 0x00, 0x00, 0x02, 0x00))
+                && length >= 6 && (header[4] != 0 || header[5] != 0)) {
+            // Windows icon or cursor followed by a non zero image count
+            return ICO;
+        }
+        if (length >= 3 && header[0] == 'P' && header[1] >= '1' && header[1] <= '6'
+                && Character.isWhitespace((char) header[2])) {
+            // Portable bitmap (P1, P4), graymap (P2, P5) or pixmap (P3, P6)
+            return PNM;
+        }
+        // Some PDF generators write a few bytes of junk before the %PDF header
+        for (int i = 1; i <= length - 4; i++) {
+            if (header[i] == 0x25 && header[i + 1] == 0x50 && header[i + 2] == 0x44
+                    && header[i + 3] == 0x46) {
+                return PDF;
+            }
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] header, int length, int... signature) {
+        if (length < signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if ((header[i] & 0xFF) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.thumbnail;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Provides static methods to decode and scale images for thumbnails.
+ *
+ * <p>Images are decoded using source subsampling so that only the pixels
+ * required for the thumbnail are decoded. e.g. a 40 megapixel scan is decoded
+ * at a small fraction of its full resolution when a 200 pixel thumbnail is
+ * required. The decoded image is then reduced to the thumbnail size by
+ * halving the image in steps using bilinear interpolation, which gives
+ * similar quality to {@linkplain Image#SCALE_SMOOTH} at a fraction of the
+ * cost.</p>
+ *
+ * @author soladev
+ */
+public class ImageUtility {
+
+    /**
+     * Decodes the image file at the lowest resolution that is at least twice
+     * the size of the thumbnail. Uses the first {@linkplain ImageIO} reader
+     * that supports the file format.
+     *
+     * @param file The image file.
+     * @param width The width of the thumbnail. Ignored if 0 or less.
+     * @param height The height of the thumbnail. Ignored if 0 or less.
+     * @return The decoded image or null if there is no ImageIO reader for the
+     * file format.
+     * @throws IOException If the image could not be decoded.
+     */
+    public static BufferedImage readSubsampled(File file, int width, int height)
+            throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(file);
+        if (in == null) {
+            return null;
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = getSubsampling(reader.getWidth(0), reader.getHeight(0),
+                        width, height);
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the subsampling factor to use when decoding an image for a
+     * thumbnail. The decoded image is kept at least twice the size of the
+     * thumbnail so the thumbnail can be smoothly scaled from the decoded
+     * image.
+     *
+     * @param srcWidth The width of the image.
+     * @param srcHeight The height of the image.
+     * @param width The width of the thumbnail. Ignored if 0 or less.
+     * @param height The height of the thumbnail. Ignored if 0 or less.
+     */
+    public static int getSubsampling(int srcWidth, int srcHeight, int width, int height) {
+        int result = Integer.MAX_VALUE;
+        if (width > 0) {
+            result = srcWidth / (width * 2);
+        }
+        if (height > 0) {
+            result = Math.min(result, srcHeight / (height * 2));
+        }
+        return result == Integer.MAX_VALUE ? 1 : Math.max(1, result);
+    }
+
+    /**
+     * Scales the image to the thumbnail size. The image is only scaled if it
+     * is larger than the thumbnail. If both the width and height are
+     * specified, the image is scaled to that size. If only one is specified,
+     * the other is calculated to retain the aspect ratio of the image.
+     *
+     * @param image The image to scale.
+     * @param width The width of the thumbnail. Ignored if 0 or less.
+     * @param height The height of the thumbnail. Ignored if 0 or less.
+     * @return The scaled image as an RGB image or null if the image is null or
+     * empty.
+     */
+    public static BufferedImage scale(Image image, int width, int height) {
+        BufferedImage result = toRgbImage(image);
+        if (result == null) {
+            return null;
+        }
+        int w = result.getWidth();
+        int h = result.getHeight();
+        if ((w <= width || width <= 0) && (h <= height || height <= 0)) {
+            return result;
+        }
+        int targetWidth = width > 0 ? width : Math.max(1, (int) ((long) w * height / h));
+        int targetHeight = height > 0 ? height : Math.max(1, (int) ((long) h * width / w));
+        while (w != targetWidth || h != targetHeight) {
+            // Halve the image at each step. Bilinear interpolation loses detail if the
+            // image is reduced by more than half in a single step. 
+            w = w > targetWidth ? Math.max(targetWidth, w / 2) : targetWidth;
+            h = h > targetHeight ? Math.max(targetHeight, h / 2) : targetHeight;
+            BufferedImage step = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = step.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(result, 0, 0, w, h, null);
+            g.dispose();
+            result = step;
+        }
+        return result;
+    }
+
+    /**
+     * Converts the image to an RGB image. Transparent areas of the image are
+     * drawn on a white background.
+     *
+     * @param image The image to convert.
+     * @return The RGB image or null if the image is null or empty.
+     */
+    public static BufferedImage toRgbImage(Image image) {
+        if (image == null || image.getWidth(null) <= 0 || image.getHeight(null) <= 0) {
+            return null;
+        }
+        if (image instanceof BufferedImage
+                && ((BufferedImage) image).getType() == BufferedImage.TYPE_INT_RGB) {
+            return (BufferedImage) image;
+        }
+        BufferedImage result = new BufferedImage(image.getWidth(null), image.getHeight(null),
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = result.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, result.getWidth(), result.getHeight());
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return result;
+    }
+}
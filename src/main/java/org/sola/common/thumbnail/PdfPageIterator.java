@@ -0,0 +1,366 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.thumbnail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.sola.common.SOLAException;
+import org.sola.common.messaging.ServiceMessage;
+
+/**
+ * Renders the pages of a PDF document on demand so that a user can page
+ * through a large document without it being reopened or fully rendered. When
+ * a page is rendered, the next page is rendered in the background so it is
+ * ready when the user moves to it.
+ *
+ * <p>Rendered pages are held in a cache that is bounded by the memory used
+ * by the page images. The least recently viewed pages are discarded when the
+ * cache is full. Call {@linkplain #close()} once the document is no longer
+ * being viewed to release the cached pages.</p>
+ *
+ * @author soladev
+ */
+public class PdfPageIterator implements Iterator<BufferedImage> {
+
+    /**
+     * The default maximum size of the rendered pages cached by the iterator
+     * (16MB). The size of a page image is 4 bytes per pixel.
+     */
+    public static final long DEFAULT_CACHE_BYTES = 16L * 1024 * 1024;
+    private static ThreadPoolExecutor prefetchExecutor = null;
+    private final PdfPreview preview;
+    private final File file;
+    private final int width;
+    private final int height;
+    private final int pageCount;
+    private final long maxCacheBytes;
+    private final LinkedHashMap<Integer, BufferedImage> pageCache =
+            new LinkedHashMap<Integer, BufferedImage>(16, 0.75f, true);
+    private final Map<Integer, Future<BufferedImage>> prefetching =
+            new HashMap<Integer, Future<BufferedImage>>();
+    private long cacheBytes = 0;
+    private int pageNumber = 1;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates an iterator over the pages of the PDF document using the
+     * shared {@linkplain PdfPreview} and a page cache of
+     * {@linkplain #DEFAULT_CACHE_BYTES}.
+     *
+     * @param file The PDF file.
+     * @param width The width to render the pages at. Ignored if 0 or less.
+     * @param height The height to render the pages at. Ignored if 0 or less.
+     * @throws IOException If the file cannot be read or parsed.
+     * @see PdfPreview#renderPage(java.io.File, int, int, int)
+     */
+    public PdfPageIterator(File file, int width, int height) throws IOException {
+        this(PdfPreview.getDefault(), file, width, height, DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     * Creates an iterator over the pages of the PDF document.
+     *
+     * @param preview The PDF preview engine used to render the pages.
+     * @param file The PDF file.
+     * @param width The width to render the pages at. Ignored if 0 or less.
+     * @param height The height to render the pages at. Ignored if 0 or less.
+     * @param maxCacheBytes The maximum size of the rendered pages to cache.
+     * @throws IOException If the file cannot be read or parsed.
+     */
+    public PdfPageIterator(PdfPreview preview, File file, int width, int height,
+            long maxCacheBytes) throws IOException {
+        this.preview = preview;
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.maxCacheBytes = maxCacheBytes;
+        this.pageCount = preview.getPageCount(file);
+    }
+
+    /**
+     * Returns the executor used to render pages in the background. A single
+     * daemon thread is used so that prefetching does not compete with the
+     * thumbnail service for processors.
+     */
+    private static synchronized ThreadPoolExecutor getPrefetchExecutor() {
+        if (prefetchExecutor == null) {
+            prefetchExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "SOLA PDF Prefetch");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.NORM_PRIORITY - 1);
+                    return t;
+                }
+            });
+            prefetchExecutor.allowCoreThreadTimeOut(true);
+        }
+        return prefetchExecutor;
+    }
+
+    /**
+     * Returns the number of pages in the document.
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Returns the number of the page that will be returned by the next call
+     * to {@linkplain #next()}. Pages are numbered from 1.
+     */
+    public int getPageNumber() {
+        return pageNumber;
+    }
+
+    /**
+     * Sets the number of the page that will be returned by the next call to
+     * {@linkplain #next()} (e.g. to move back to a previous page).
+     *
+     * @param pageNumber The page number starting from 1.
+     */
+    public void setPageNumber(int pageNumber) {
+        if (pageNumber < 1 || pageNumber > pageCount + 1) {
+            throw new IndexOutOfBoundsException("Page " + pageNumber + " of " + pageCount);
+        }
+        this.pageNumber = pageNumber;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return pageNumber <= pageCount;
+    }
+
+    /**
+     * Returns the image of the next page and starts rendering the page after
+     * it in the background.
+     *
+     * @throws NoSuchElementException If there are no more pages.
+     * @throws SOLAException If the page cannot be rendered.
+     */
+    @Override
+    public BufferedImage next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            return getPage(pageNumber++);
+        } catch (IOException ex) {
+            throw new SOLAException(ServiceMessage.GENERAL_UNEXPECTED_ERROR_DETAILS,
+                    new Object[]{"Rendering page " + (pageNumber - 1) + " of " + file.getName(),
+                        ex.getLocalizedMessage(), ex});
+        }
+    }
+
+    /**
+     * Not supported. Pages cannot be removed from the document.
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Pages cannot be removed");
+    }
+
+    /**
+     * Returns the image of the page and starts rendering the following page
+     * in the background. The current position of the iterator is not
+     * changed.
+     *
+     * @param number The page number starting from 1.
+     * @return The rendered page or null if the page could not be rendered.
+     * @throws IOException If the file cannot be read or parsed.
+     */
+    public BufferedImage getPage(int number) throws IOException {
+        if (number < 1 || number > pageCount) {
+            throw new IndexOutOfBoundsException("Page " + number + " of " + pageCount);
+        }
+        BufferedImage result = getCachedPage(number);
+        if (result == null) {
+            FutureTask<BufferedImage> task = null;
+            Future<BufferedImage> pending;
+            synchronized (prefetching) {
+                // Claim the page so it is not also rendered in the background
+                result = getCachedPage(number);
+                pending = prefetching.get(number);
+                if (result == null && pending == null) {
+                    task = createRenderTask(number);
+                    prefetching.put(number, task);
+                    pending = task;
+                }
+            }
+            if (task != null) {
+                task.run();
+            }
+            if (result == null) {
+                result = waitFor(pending);
+            }
+            if (result == null) {
+                result = render(number);
+            }
+        }
+        prefetch(number + 1);
+        return result;
+    }
+
+    /**
+     * Cancels any pages being rendered in the background and discards the
+     * cached pages. Pages can still be rendered after the iterator is
+     * closed, but they are no longer cached or prefetched.
+     */
+    public void close() {
+        closed = true;
+        synchronized (prefetching) {
+            for (Future<BufferedImage> f : prefetching.values()) {
+                f.cancel(false);
+            }
+            prefetching.clear();
+        }
+        synchronized (pageCache) {
+            pageCache.clear();
+            cacheBytes = 0;
+        }
+    }
+
+    private BufferedImage waitFor(Future<BufferedImage> pending) throws IOException {
+        try {
+            return pending.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            // Render the page again on the calling thread to report the error
+            return null;
+        } catch (CancellationException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts rendering the page in the background unless it is already
+     * cached or being rendered.
+     */
+    private void prefetch(int number) {
+        if (number > pageCount) {
+            return;
+        }
+        synchronized (prefetching) {
+            if (closed || prefetching.containsKey(number) || getCachedPage(number) != null) {
+                return;
+            }
+            FutureTask<BufferedImage> task = createRenderTask(number);
+            prefetching.put(number, task);
+            getPrefetchExecutor().execute(task);
+        }
+    }
+
+    /**
+     * Creates a task to render the page. The caller must add the task to
+     * {@code prefetching} before it is run. The task removes itself once the
+     * page is rendered.
+     */
+    private FutureTask<BufferedImage> createRenderTask(final int number) {
+        return new FutureTask<BufferedImage>(new Callable<BufferedImage>() {
+
+            @Override
+            public BufferedImage call() throws Exception {
+                try {
+                    return render(number);
+                } finally {
+                    synchronized (prefetching) {
+                        prefetching.remove(number);
+                    }
+                }
+            }
+        });
+    }
+
+    private BufferedImage render(int number) throws IOException {
+        BufferedImage result = preview.renderPage(file, number, width, height);
+        if (result != null) {
+            putCachedPage(number, result);
+        }
+        return result;
+    }
+
+    private BufferedImage getCachedPage(int number) {
+        synchronized (pageCache) {
+            return pageCache.get(number);
+        }
+    }
+
+    private static long getSize(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+
+    private void putCachedPage(int number, BufferedImage page) {
+        long size = getSize(page);
+        if (size > maxCacheBytes) {
+            return;
+        }
+        synchronized (pageCache) {
+            if (closed) {
+                // A page that finished rendering after the iterator was closed
+                return;
+            }
+            BufferedImage old = pageCache.put(number, page);
+            if (old != null) {
+                cacheBytes -= getSize(old);
+            }
+            cacheBytes += size;
+            Iterator<Map.Entry<Integer, BufferedImage>> it = pageCache.entrySet().iterator();
+            while (cacheBytes > maxCacheBytes && it.hasNext()) {
+                Map.Entry<Integer, BufferedImage> eldest = it.next();
+                if (eldest.getKey() == number) {
+                    // Never discard the page that has just been rendered
+                    continue;
+                }
+                cacheBytes -= getSize(eldest.getValue());
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,423 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.thumbnail;
+
+import com.sun.pdfview.PDFFile;
+import com.sun.pdfview.PDFPage;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.sola.common.BufferPool;
+import org.sola.common.FileUtility;
+
+/**
+ * Renders previews of the pages of PDF documents. Pages are rendered at the
+ * size of the preview rather than at full resolution and then scaled down.
+ *
+ * <p>The parsed {@linkplain PDFFile} for the most recently used documents
+ * are kept open so that previews of other pages of the same document do not
+ * need to parse the document again. A document is parsed again if it has
+ * been modified since it was opened.</p>
+ *
+ * <p>Small documents are read into pooled heap buffers. The buffers are
+ * pooled by size (64KB, 128KB and so on up to the heap threshold) so a small
+ * document does not hold a buffer sized for the largest. Larger documents are
+ * memory mapped and the mapping is released as soon as the document is
+ * closed, rather than when the buffer is garbage collected, so that batches
+ * of previews do not accumulate mapped memory or hold locks on the files.</p>
+ *
+ * @author soladev
+ */
+public class PdfPreview {
+
+    // The scale used to render a page if no preview size is specified
+    private static final int DEFAULT_SCALE = 3;
+    /**
+     * The default size of the largest document read into a heap buffer
+     * (1MB). Larger documents are memory mapped.
+     */
+    public static final int DEFAULT_HEAP_THRESHOLD = 1024 * 1024;
+    // The size of the smallest pooled heap buffer
+    private static final int MIN_HEAP_BUFFER_SIZE = 64 * 1024;
+    private static PdfPreview defaultPreview = null;
+    private final Map<String, PdfHandle> openFiles;
+    private final BufferPool[] heapBuffers;
+    private volatile int qualityMultiplier = 2;
+
+    /**
+     * Creates a PDF preview engine that reads documents up to
+     * {@linkplain #DEFAULT_HEAP_THRESHOLD} into heap buffers.
+     *
+     * @param maxOpenFiles The maximum number of parsed PDF documents to keep
+     * open.
+     */
+    public PdfPreview(int maxOpenFiles) {
+        this(maxOpenFiles, DEFAULT_HEAP_THRESHOLD);
+    }
+
+    /**
+     * Creates a PDF preview engine.
+     *
+     * @param maxOpenFiles The maximum number of parsed PDF documents to keep
+     * open.
+     * @param heapThreshold The size of the largest document to read into a
+     * heap buffer. Larger documents are memory mapped. If 0, all documents
+     * are memory mapped.
+     */
+    public PdfPreview(final int maxOpenFiles, int heapThreshold) {
+        openFiles = new LinkedHashMap<String, PdfHandle>(maxOpenFiles + 1, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PdfHandle> eldest) {
+                if (size() > maxOpenFiles) {
+                    eldest.getValue().close();
+                    return true;
+                }
+                return false;
+            }
+        };
+        heapBuffers = createHeapBuffers(heapThreshold, maxOpenFiles);
+    }
+
+    /**
+     * Creates the pools of heap buffers. The buffer size doubles for each
+     * pool and the largest buffers are the size of the heap threshold.
+     */
+    private static BufferPool[] createHeapBuffers(int heapThreshold, int maxPooled) {
+        List<BufferPool> pools = new ArrayList<BufferPool>();
+        if (heapThreshold > 0) {
+            int size = MIN_HEAP_BUFFER_SIZE;
+            while (size > 0 && size < heapThreshold) {
+                pools.add(new BufferPool(size, maxPooled, false));
+                size <<= 1;
+            }
+            pools.add(new BufferPool(heapThreshold, maxPooled, false));
+        }
+        return pools.toArray(new BufferPool[pools.size()]);
+    }
+
+    /**
+     * Returns the pool with the smallest buffers that can hold the file or
+     * null if the file should be memory mapped.
+     */
+    private BufferPool getHeapBuffers(long length) {
+        for (BufferPool pool : heapBuffers) {
+            if (length <= pool.getBufferSize()) {
+                return pool;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the shared PDF preview engine. The shared engine keeps up to 4
+     * PDF documents open.
+     */
+    public static synchronized PdfPreview getDefault() {
+        if (defaultPreview == null) {
+            defaultPreview = new PdfPreview(4);
+        }
+        return defaultPreview;
+    }
+
+    /**
+     * Sets the multiplier applied to the preview size when a page is rendered
+     * at less than its natural size. Rendering at a larger size and scaling
+     * down improves the legibility of text in small previews. Default is 2.
+     *
+     * @param qualityMultiplier The multiplier. 1 renders the page at the
+     * preview size.
+     */
+    public void setQualityMultiplier(int qualityMultiplier) {
+        this.qualityMultiplier = Math.max(1, qualityMultiplier);
+    }
+
+    /**
+     * Returns the handle for the parsed PDF document, opening the document if
+     * it is not already open. The handle must be released by the caller once
+     * it has finished with the document.
+     *
+     * @param file The PDF file.
+     * @throws IOException If the file cannot be read or parsed.
+     */
+    private PdfHandle open(File file) throws IOException {
+        String key = file.getAbsolutePath() + "|" + file.lastModified() + "|" + file.length();
+        synchronized (openFiles) {
+            PdfHandle result = openFiles.get(key);
+            if (result != null) {
+                result.retain();
+                return result;
+            }
+        }
+        PdfHandle result = load(file);
+        synchronized (openFiles) {
+            PdfHandle current = openFiles.get(key);
+            if (current != null) {
+                // Another thread opened the file at the same time
+                result.release();
+                result.close();
+                current.retain();
+                return current;
+            }
+            openFiles.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Closes all of the open PDF documents. Documents that are being rendered
+     * are closed once rendering completes.
+     */
+    public void clear() {
+        synchronized (openFiles) {
+            for (PdfHandle handle : openFiles.values()) {
+                handle.close();
+            }
+            openFiles.clear();
+        }
+    }
+
+    /**
+     * Returns the number of pages in the PDF document.
+     *
+     * @param file The PDF file.
+     * @throws IOException If the file cannot be read or parsed.
+     */
+    public int getPageCount(File file) throws IOException {
+        PdfHandle handle = open(file);
+        try {
+            synchronized (handle.pdf) {
+                return handle.pdf.getNumPages();
+            }
+        } finally {
+            handle.release();
+        }
+    }
+
+    /**
+     * Renders a page of the PDF document at the preview size. If both the
+     * width and height are specified, the page is rendered at that size. If
+     * only one is specified, the other is calculated to retain the aspect
+     * ratio of the page.
+     *
+     * @param file The PDF file.
+     * @param pageNumber The number of the page to render starting from 1.
+     * @param width The width of the preview. Ignored if 0 or less.
+     * @param height The height of the preview. Ignored if 0 or less.
+     * @return The rendered page or null if the page does not exist.
+     * @throws IOException If the file cannot be read or parsed.
+     */
+    public BufferedImage renderPage(File file, int pageNumber, int width, int height)
+            throws IOException {
+        PdfHandle handle = open(file);
+        try {
+            // PDFFile is not safe for use by multiple threads
+            synchronized (handle.pdf) {
+                if (pageNumber < 1 || pageNumber > handle.pdf.getNumPages()) {
+                    return null;
+                }
+                return renderPage(handle.pdf.getPage(pageNumber, true), width, height);
+            }
+        } finally {
+            handle.release();
+        }
+    }
+
+    /**
+     * Renders the page at the preview size.
+     *
+     * @param page The page to render.
+     * @param width The width of the preview. Ignored if 0 or less.
+     * @param height The height of the preview. Ignored if 0 or less.
+     * @return The rendered page or null if the page could not be rendered.
+     */
+    public BufferedImage renderPage(PDFPage page, int width, int height) {
+        if (page == null) {
+            return null;
+        }
+        float pageWidth = page.getWidth();
+        float pageHeight = page.getHeight();
+        if (pageWidth <= 0 || pageHeight <= 0) {
+            return null;
+        }
+        int w;
+        int h;
+        if (width > 0 && height > 0) {
+            w = width;
+            h = height;
+        } else if (width > 0) {
+            w = width;
+            h = Math.max(1, Math.round(pageHeight * width / pageWidth));
+        } else if (height > 0) {
+            h = height;
+            w = Math.max(1, Math.round(pageWidth * height / pageHeight));
+        } else {
+            w = (int) pageWidth * DEFAULT_SCALE;
+            h = (int) pageHeight * DEFAULT_SCALE;
+        }
+        // Only render at a higher resolution if the preview is smaller than the page
+        int multiplier = w < pageWidth && h < pageHeight ? qualityMultiplier : 1;
+        Image image = page.getImage(w * multiplier, h * multiplier,
+                null, // null for the clip rectangle to ensure entire page is captured
+                null,
+                true, // fill background with white
+                true // block until drawing is done
+                );
+        return ImageUtility.scale(image, w, h);
+    }
+
+    /**
+     * Reads or maps the file and parses the PDF document. The handle returned
+     * is retained for the caller.
+     */
+    private PdfHandle load(File file) throws IOException {
+        long length = file.length();
+        ByteBuffer buffer;
+        boolean mapped;
+        BufferPool pool = getHeapBuffers(length);
+        if (pool != null) {
+            buffer = readFile(pool, file);
+            mapped = false;
+        } else {
+            buffer = mapFile(file);
+            mapped = true;
+        }
+        try {
+            // The document is given a view limited to the content of the file
+            return new PdfHandle(new PDFFile(buffer.slice()), buffer, mapped);
+        } catch (IOException ex) {
+            free(buffer, mapped);
+            throw ex;
+        } catch (RuntimeException ex) {
+            free(buffer, mapped);
+            throw ex;
+        }
+    }
+
+    /**
+     * Reads the file into a pooled heap buffer. The buffer is flipped ready
+     * to be read.
+     */
+    private static ByteBuffer readFile(BufferPool pool, File file) throws IOException {
+        ByteBuffer buffer = pool.acquire();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading until the end of the file
+            }
+        } catch (IOException ex) {
+            pool.release(buffer);
+            throw ex;
+        } finally {
+            raf.close();
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Maps the file into memory. The file channel is closed once the file is
+     * mapped.
+     */
+    private static ByteBuffer mapFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Releases the memory used by the buffer of a closed document.
+     */
+    private void free(ByteBuffer buffer, boolean mapped) {
+        if (mapped) {
+            FileUtility.unmap(buffer);
+        } else {
+            // The buffer is returned to the pool for its size
+            BufferPool pool = getHeapBuffers(buffer.capacity());
+            if (pool != null) {
+                pool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * A parsed PDF document and the buffer holding the content of the file.
+     * PDFFile reads from the buffer as pages are rendered, so the buffer is
+     * only freed once the document has been closed and is no longer in use.
+     * Synchronize on the document to use it.
+     */
+    private class PdfHandle {
+
+        private final PDFFile pdf;
+        private final ByteBuffer buffer;
+        private final boolean mapped;
+        private int users = 1;
+        private boolean closed = false;
+        private boolean freed = false;
+
+        PdfHandle(PDFFile pdf, ByteBuffer buffer, boolean mapped) {
+            this.pdf = pdf;
+            this.buffer = buffer;
+            this.mapped = mapped;
+        }
+
+        synchronized void retain() {
+            users++;
+        }
+
+        synchronized void release() {
+            users--;
+            freeIfUnused();
+        }
+
+        synchronized void close() {
+            closed = true;
+            freeIfUnused();
+        }
+
+        private void freeIfUnused() {
+            if (closed && users <= 0 && !freed) {
+                freed = true;
+                free(buffer, mapped);
+            }
+        }
+    }
+}
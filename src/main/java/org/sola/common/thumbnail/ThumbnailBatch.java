@@ -0,0 +1,291 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.thumbnail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import org.sola.common.FileMetaData;
+import org.sola.common.FileUtility;
+import org.sola.common.NetworkFolder;
+import org.sola.common.logging.LogUtility;
+
+/**
+ * Creates the thumbnails for a batch of documents in advance so they are
+ * available from the thumbnail cache when the documents are first viewed
+ * (e.g. as a server side job run against a document share). Thumbnails are
+ * created in parallel using
+ * {@linkplain FileUtility#createImageThumbnail(java.lang.String, int, int)}
+ * with one thread per available processor by default.
+ *
+ * <p>Files that already have an up to date thumbnail in the thumbnail cache
+ * are skipped. The thumbnail cache must be enabled with
+ * {@linkplain FileUtility#setThumbnailCache(long, long)} before the batch is
+ * run, otherwise the thumbnails would be created and discarded.</p>
+ *
+ * @author soladev
+ */
+public class ThumbnailBatch {
+
+    private final int width;
+    private final int height;
+    private final int numThreads;
+    private volatile File stagingDirectory =
+            new File(System.getProperty("java.io.tmpdir"), "sola-thumbnail-staging");
+
+    /**
+     * Creates a thumbnail batch that uses one thread per available
+     * processor.
+     *
+     * @param width The width of the thumbnails.
+     * @param height The height of the thumbnails.
+     */
+    public ThumbnailBatch(int width, int height) {
+        this(width, height, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a thumbnail batch.
+     *
+     * @param width The width of the thumbnails.
+     * @param height The height of the thumbnails.
+     * @param numThreads The number of thumbnails to create at the same time.
+     */
+    public ThumbnailBatch(int width, int height, int numThreads) {
+        this.width = width;
+        this.height = height;
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Sets the local directory that files from a network file share are
+     * copied to so that thumbnails can be created for them. The copies are
+     * retained so that the files do not need to be copied again for
+     * subsequent batches unless they change. Default is the
+     * sola-thumbnail-staging directory in the system temp directory.
+     *
+     * @param stagingDirectory The local directory.
+     */
+    public void setStagingDirectory(File stagingDirectory) {
+        this.stagingDirectory = stagingDirectory;
+    }
+
+    /**
+     * Creates thumbnails for the files.
+     *
+     * @param filePaths The full paths of the files.
+     * @return The statistics for the batch.
+     * @throws IllegalStateException If the thumbnail cache is not enabled.
+     */
+    public ThumbnailBatchStatistics createThumbnails(List<String> filePaths) {
+        checkThumbnailCache();
+        final Recorder recorder = new Recorder();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(filePaths.size());
+        for (final String filePath : filePaths) {
+            tasks.add(new Callable<Void>() {
+
+                @Override
+                public Void call() {
+                    createThumbnail(new File(filePath), recorder);
+                    return null;
+                }
+            });
+        }
+        return run(tasks, recorder);
+    }
+
+    /**
+     * Creates thumbnails for files in the folder. Files on a network file
+     * share are copied to the staging directory before their thumbnails are
+     * created.
+     *
+     * @param folder The folder containing the files.
+     * @param files The files to create thumbnails for as returned by
+     * {@linkplain NetworkFolder#getAllFiles(java.lang.String)}.
+     * @return The statistics for the batch.
+     * @throws IllegalStateException If the thumbnail cache is not enabled.
+     * @see #setStagingDirectory(java.io.File)
+     */
+    public ThumbnailBatchStatistics createThumbnails(final NetworkFolder folder,
+            List<FileMetaData> files) {
+        checkThumbnailCache();
+        final Recorder recorder = new Recorder();
+        final File stagingDir = stagingDirectory;
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(files.size());
+        for (final FileMetaData fileInfo : files) {
+            tasks.add(new Callable<Void>() {
+
+                @Override
+                public Void call() {
+                    // getAllFiles uses the pathSeparator (;) to delimit subdirectories
+                    String name = fileInfo.getName().replace(File.pathSeparator, File.separator);
+                    if (folder.isNetworkFolder()) {
+                        File file = new File(stagingDir, name);
+                        try {
+                            stage(folder, fileInfo, file);
+                        } catch (RuntimeException ex) {
+                            LogUtility.log("Unable to copy " + fileInfo.getName()
+                                    + " - " + ex.getMessage(), Level.WARNING);
+                            recorder.failed();
+                            return null;
+                        }
+                        createThumbnail(file, recorder);
+                    } else {
+                        createThumbnail(new File(folder.getPath() + name), recorder);
+                    }
+                    return null;
+                }
+            });
+        }
+        return run(tasks, recorder);
+    }
+
+    private static void checkThumbnailCache() {
+        if (FileUtility.getThumbnailCache() == null) {
+            throw new IllegalStateException("The thumbnail cache is not enabled");
+        }
+    }
+
+    /**
+     * Copies the file from the network folder to the staging file unless the
+     * staging file is already a copy of the current version of the file.
+     */
+    private static void stage(NetworkFolder folder, FileMetaData fileInfo, File file) {
+        if (file.exists() && (file.length() != fileInfo.getFileSize()
+                || fileInfo.getModificationDate() == null
+                || file.lastModified() != fileInfo.getModificationDate().getTime())) {
+            file.delete();
+        }
+        if (!file.exists()) {
+            File dir = file.getParentFile();
+            if (!dir.isDirectory()) {
+                dir.mkdirs();
+            }
+            folder.copyFileToLocal(fileInfo.getName(), file);
+        }
+    }
+
+    /**
+     * Creates the thumbnail for the file unless the thumbnail cache already
+     * has an up to date thumbnail.
+     */
+    private void createThumbnail(File file, Recorder recorder) {
+        if (!file.isFile()) {
+            recorder.failed();
+            return;
+        }
+        ThumbnailCache cache = FileUtility.getThumbnailCache();
+        if (cache != null && cache.contains(file, width, height)) {
+            recorder.skipped();
+            return;
+        }
+        String format = FormatSniffer.sniff(file);
+        long start = System.nanoTime();
+        BufferedImage thumbnail = FileUtility.createImageThumbnail(file.getAbsolutePath(),
+                width, height);
+        recorder.processed(format == null ? ThumbnailBatchStatistics.UNKNOWN_FORMAT : format,
+                thumbnail != null, (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Runs the tasks on a pool of daemon threads and waits for them to
+     * complete.
+     */
+    private ThumbnailBatchStatistics run(List<Callable<Void>> tasks, Recorder recorder) {
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        ExecutorService executor = new ThreadPoolExecutor(numThreads, numThreads, 0,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SOLA Thumbnail Batch " + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long start = System.currentTimeMillis();
+        try {
+            executor.invokeAll(tasks);
+        } catch (InterruptedException ex) {
+            // Return the statistics for the thumbnails created so far
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        return recorder.getStatistics(System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Accumulates the results of the thumbnails created by the worker
+     * threads.
+     */
+    private static class Recorder {
+
+        private int createdCount = 0;
+        private int skippedCount = 0;
+        private int failedCount = 0;
+        private final Map<String, Integer> formatCounts = new HashMap<String, Integer>();
+        private final Map<String, Long> formatMillis = new HashMap<String, Long>();
+
+        synchronized void skipped() {
+            skippedCount++;
+        }
+
+        synchronized void failed() {
+            failedCount++;
+        }
+
+        synchronized void processed(String format, boolean created, long millis) {
+            if (created) {
+                createdCount++;
+            } else {
+                failedCount++;
+            }
+            Integer count = formatCounts.get(format);
+            formatCounts.put(format, count == null ? 1 : count + 1);
+            Long total = formatMillis.get(format);
+            formatMillis.put(format, total == null ? millis : total + millis);
+        }
+
+        synchronized ThumbnailBatchStatistics getStatistics(long elapsedMillis) {
+            return new ThumbnailBatchStatistics(createdCount, skippedCount, failedCount,
+                    elapsedMillis, formatCounts, formatMillis);
+        }
+    }
+}
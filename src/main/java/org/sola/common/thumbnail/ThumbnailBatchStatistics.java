@@ -0,0 +1,150 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.thumbnail;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The results of a batch of thumbnails created by
+ * {@linkplain ThumbnailBatch}.
+ *
+ * @author soladev
+ */
+public class ThumbnailBatchStatistics {
+
+    /**
+     * The format name used for files that are not recognized by
+     * {@linkplain FormatSniffer}.
+     */
+    public static final String UNKNOWN_FORMAT = "unknown";
+    private final int createdCount;
+    private final int skippedCount;
+    private final int failedCount;
+    private final long elapsedMillis;
+    private final Map<String, Integer> formatCounts;
+    private final Map<String, Long> formatMillis;
+
+    public ThumbnailBatchStatistics(int createdCount, int skippedCount, int failedCount,
+            long elapsedMillis, Map<String, Integer> formatCounts, Map<String, Long> formatMillis) {
+        this.createdCount = createdCount;
+        this.skippedCount = skippedCount;
+        this.failedCount = failedCount;
+        this.elapsedMillis = elapsedMillis;
+        this.formatCounts = Collections.unmodifiableMap(new TreeMap<String, Integer>(formatCounts));
+        this.formatMillis = Collections.unmodifiableMap(new TreeMap<String, Long>(formatMillis));
+    }
+
+    /**
+     * The number of files in the batch.
+     */
+    public int getFileCount() {
+        return createdCount + skippedCount + failedCount;
+    }
+
+    /**
+     * The number of thumbnails created.
+     */
+    public int getCreatedCount() {
+        return createdCount;
+    }
+
+    /**
+     * The number of files skipped because the thumbnail cache already held
+     * an up to date thumbnail.
+     */
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * The number of files a thumbnail could not be created for (e.g. because
+     * the file does not exist or is not an image or PDF document).
+     */
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * The time taken to process the batch in milliseconds.
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * The number of files processed per second or 0 if no time elapsed.
+     */
+    public double getFilesPerSecond() {
+        return elapsedMillis == 0 ? 0 : getFileCount() * 1000.0 / elapsedMillis;
+    }
+
+    /**
+     * The number of files of each format as identified by
+     * {@linkplain FormatSniffer} (e.g. jpeg, pdf) that thumbnails were created for or attempted to be created for.
+     * Skipped files are not included.
+     */
+    public Map<String, Integer> getFormatCounts() {
+        return formatCounts;
+    }
+
+    /**
+     * The total time in milliseconds spent creating thumbnails for each
+     * format. As thumbnails are created in parallel, the total can exceed
+     * the elapsed time of the batch.
+     */
+    public Map<String, Long> getFormatMillis() {
+        return formatMillis;
+    }
+
+    /**
+     * The average time in milliseconds to create a thumbnail for the format
+     * or 0 if the batch did not include the format.
+     *
+     * @param format The format name, one of the {@linkplain FormatSniffer}
+     * constants or {@linkplain #UNKNOWN_FORMAT}.
+     */
+    public double getAverageMillis(String format) {
+        Integer count = formatCounts.get(format);
+        Long millis = formatMillis.get(format);
+        return count == null || millis == null || count == 0 ? 0 : (double) millis / count;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder formats = new StringBuilder();
+        for (String format : formatCounts.keySet()) {
+            formats.append(String.format(", %s=%d (avgMs=%.1f)", format,
+                    formatCounts.get(format), getAverageMillis(format)));
+        }
+        return String.format("files=%d, created=%d, skipped=%d, failed=%d, elapsedMs=%d, "
+                + "filesPerSec=%.1f", getFileCount(), createdCount, skippedCount, failedCount,
+                elapsedMillis, getFilesPerSecond()) + formats;
+    }
+}
@@ -0,0 +1,284 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.thumbnail;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import javax.imageio.ImageIO;
+import org.sola.common.cache.CacheEntry;
+import org.sola.common.cache.DocumentCache;
+import org.sola.common.logging.LogUtility;
+
+/**
+ * Caches thumbnails in memory and on disk so that a thumbnail does not need
+ * to be created from the source document each time it is displayed.
+ *
+ * <p>Thumbnails are keyed by the path, last modified time and size of the
+ * source file along with the requested thumbnail size, so a thumbnail is
+ * created again if the source file changes. Thumbnails are stored on disk as
+ * PNG (or JPEG) files in their own directory that is managed with a
+ * {@linkplain DocumentCache}. The least recently used thumbnails are removed
+ * when the memory or disk cache exceeds its byte budget.</p>
+ *
+ * @author soladev
+ */
+public class ThumbnailCache {
+
+    private final DocumentCache diskCache;
+    private final long maxDiskBytes;
+    private final long maxMemoryBytes;
+    private final LinkedHashMap<String, BufferedImage> memoryCache =
+            new LinkedHashMap<String, BufferedImage>(64, 0.75f, true);
+    private long memoryBytes = 0;
+    private volatile String format = "png";
+
+    /**
+     * Creates a thumbnail cache.
+     *
+     * @param directory The directory to store the thumbnails in.
+     * @param maxDiskBytes The maximum size of the thumbnails stored on disk.
+     * If 0, thumbnails are not stored on disk.
+     * @param maxMemoryBytes The maximum size of the thumbnails held in
+     * memory. The size of a thumbnail in memory is 4 bytes per pixel. If 0,
+     * thumbnails are not held in memory.
+     */
+    public ThumbnailCache(File directory, long maxDiskBytes, long maxMemoryBytes) {
+        this.diskCache = new DocumentCache(directory);
+        this.maxDiskBytes = maxDiskBytes;
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    /**
+     * Returns the image format used to store thumbnails on disk.
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * Sets the image format used to store thumbnails on disk. PNG (the
+     * default) is lossless. JPEG produces smaller files for thumbnails of
+     * photos and scans.
+     *
+     * @param format The ImageIO format name, either png or jpg.
+     */
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    /**
+     * Returns the key for the thumbnail of the source file.
+     *
+     * @param source The source file.
+     * @param width The requested width of the thumbnail.
+     * @param height The requested height of the thumbnail.
+     */
+    public static String getKey(File source, int width, int height) {
+        String id = source.getAbsolutePath() + "|" + source.lastModified() + "|"
+                + source.length() + "|" + width + "x" + height;
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            return DocumentCache.getContentName(md.digest(id.getBytes("UTF-8")), null);
+        } catch (NoSuchAlgorithmException ex) {
+            return Integer.toHexString(id.hashCode());
+        } catch (UnsupportedEncodingException ex) {
+            return Integer.toHexString(id.hashCode());
+        }
+    }
+
+    /**
+     * Returns the cached thumbnail for the source file or null if the
+     * thumbnail is not cached or the source file has changed since the
+     * thumbnail was cached. A copy of the cached thumbnail is returned, so
+     * the caller can modify it without affecting other callers.
+     *
+     * @param source The source file.
+     * @param width The requested width of the thumbnail.
+     * @param height The requested height of the thumbnail.
+     */
+    public BufferedImage get(File source, int width, int height) {
+        String key = getKey(source, width, height);
+        synchronized (memoryCache) {
+            BufferedImage result = memoryCache.get(key);
+            if (result != null) {
+                return copy(result);
+            }
+        }
+        if (maxDiskBytes <= 0) {
+            return null;
+        }
+        String name = getFileName(key);
+        BufferedImage result = null;
+        Lock lock = diskCache.getLock(name).readLock();
+        lock.lock();
+        try {
+            if (diskCache.contains(name)) {
+                result = ImageIO.read(diskCache.getFile(name));
+            }
+        } catch (IOException ex) {
+            // The thumbnail may have been removed by another process
+            diskCache.removeIfMissing(name);
+            result = null;
+        } finally {
+            lock.unlock();
+        }
+        if (result == null) {
+            return null;
+        }
+        diskCache.touch(name);
+        putInMemory(key, result);
+        return copy(result);
+    }
+
+    /**
+     * Checks if the cache holds a thumbnail for the current version of the
+     * source file without reading the thumbnail.
+     *
+     * @param source The source file.
+     * @param width The requested width of the thumbnail.
+     * @param height The requested height of the thumbnail.
+     */
+    public boolean contains(File source, int width, int height) {
+        String key = getKey(source, width, height);
+        synchronized (memoryCache) {
+            if (memoryCache.containsKey(key)) {
+                return true;
+            }
+        }
+        return maxDiskBytes > 0 && diskCache.contains(getFileName(key));
+    }
+
+    /**
+     * Adds a copy of the thumbnail to the cache.
+     *
+     * @param source The source file.
+     * @param width The requested width of the thumbnail.
+     * @param height The requested height of the thumbnail.
+     * @param thumbnail The thumbnail created for the source file.
+     */
+    public void put(File source, int width, int height, BufferedImage thumbnail) {
+        if (thumbnail == null) {
+            return;
+        }
+        String key = getKey(source, width, height);
+        if (getSize(thumbnail) <= maxMemoryBytes) {
+            putInMemory(key, copy(thumbnail));
+        }
+        if (maxDiskBytes > 0) {
+            try {
+                writeToDisk(getFileName(key), thumbnail);
+            } catch (IOException ex) {
+                LogUtility.log("Unable to cache thumbnail - " + ex.getMessage(), Level.WARNING);
+            }
+        }
+    }
+
+    /**
+     * Removes all thumbnails from the memory cache. The thumbnails stored on
+     * disk are retained.
+     */
+    public void clearMemory() {
+        synchronized (memoryCache) {
+            memoryCache.clear();
+            memoryBytes = 0;
+        }
+    }
+
+    private String getFileName(String key) {
+        return key + "." + format;
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        ColorModel cm = image.getColorModel();
+        return new BufferedImage(cm, image.copyData(null), cm.isAlphaPremultiplied(), null);
+    }
+
+    private static long getSize(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+
+    private void putInMemory(String key, BufferedImage thumbnail) {
+        long size = getSize(thumbnail);
+        if (size > maxMemoryBytes) {
+            return;
+        }
+        synchronized (memoryCache) {
+            BufferedImage old = memoryCache.put(key, thumbnail);
+            if (old != null) {
+                memoryBytes -= getSize(old);
+            }
+            memoryBytes += size;
+            Iterator<Map.Entry<String, BufferedImage>> it = memoryCache.entrySet().iterator();
+            while (memoryBytes > maxMemoryBytes && it.hasNext()) {
+                memoryBytes -= getSize(it.next().getValue());
+                it.remove();
+            }
+        }
+    }
+
+    private void writeToDisk(String name, BufferedImage thumbnail) throws IOException {
+        File file = diskCache.getFile(name);
+        File dir = file.getParentFile();
+        if (!dir.isDirectory()) {
+            dir.mkdirs();
+        }
+        Lock lock = diskCache.getLock(name).writeLock();
+        lock.lock();
+        try {
+            File tmpFile = diskCache.createTempFile(".thumb");
+            try {
+                if (!ImageIO.write(thumbnail, format, tmpFile)) {
+                    return;
+                }
+                file.delete();
+                if (!tmpFile.renameTo(file)) {
+                    return;
+                }
+                diskCache.put(name, file.length(), CacheEntry.NO_CHECKSUM);
+            } finally {
+                tmpFile.delete();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (diskCache.getTotalSize() > maxDiskBytes) {
+            // Trim to 80% of the budget so the cache is not trimmed on every write
+            diskCache.trim(maxDiskBytes * 4 / 5, 0);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.thumbnail;
+
+import java.awt.Image;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.swing.ImageIcon;
+import org.apache.sanselan.ImageReadException;
+import org.apache.sanselan.Sanselan;
+
+/**
+ * The registry of the decoders used to create thumbnails for each format
+ * identified by {@linkplain FormatSniffer}. Decoders are registered by
+ * default for PDF documents and for the image formats supported by ImageIO
+ * and Sanselan. Additional decoders can be registered for other formats.
+ *
+ * @author soladev
+ */
+public final class ThumbnailDecoders {
+
+    private static final Map<String, ThumbnailDecoder> decoders =
+            new ConcurrentHashMap<String, ThumbnailDecoder>();
+
+    static {
+        register(FormatSniffer.PDF, new ThumbnailDecoder() {
+
+            @Override
+            public Image decode(File file, int width, int height) throws IOException {
+                // Render the first page at the thumbnail size. The parsed document is
+                // kept open in case other pages are previewed.
+                return PdfPreview.getDefault().renderPage(file, 1, width, height);
+            }
+        });
+        register(FormatSniffer.JPEG, new ImageDecoder(true));
+        ThumbnailDecoder imageDecoder = new ImageDecoder(false);
+        register(FormatSniffer.PNG, imageDecoder);
+        register(FormatSniffer.GIF, imageDecoder);
+        register(FormatSniffer.BMP, imageDecoder);
+        register(FormatSniffer.TIFF, imageDecoder);
+        register(FormatSniffer.PSD, imageDecoder);
+        register(FormatSniffer.ICO, imageDecoder);
+        register(FormatSniffer.PNM, imageDecoder);
+    }
+
+    private ThumbnailDecoders() {
+    }
+
+    /**
+     * Registers the decoder for the format, replacing any existing decoder.
+     *
+     * @param format The format name as returned by
+     * {@linkplain FormatSniffer#sniff(java.io.File)}.
+     * @param decoder The decoder for the format.
+     */
+    public static void register(String format, ThumbnailDecoder decoder) {
+        decoders.put(format, decoder);
+    }
+
+    /**
+     * Removes the decoder for the format so that thumbnails are not created
+     * for files of that format.
+     *
+     * @param format The format name.
+     */
+    public static void unregister(String format) {
+        decoders.remove(format);
+    }
+
+    /**
+     * Returns the decoder for the format or null if there is no decoder
+     * registered for the format.
+     *
+     * @param format The format name. Can be null.
+     */
+    public static ThumbnailDecoder getDecoder(String format) {
+        return format == null ? null : decoders.get(format);
+    }
+
+    /**
+     * Returns the decoder for the file based on the signature of the file or
+     * null if the format of the file is not recognized or there is no
+     * decoder registered for the format.
+     *
+     * @param file The file to decode.
+     */
+    public static ThumbnailDecoder getDecoder(File file) {
+        return getDecoder(FormatSniffer.sniff(file));
+    }
+
+    /**
+     * Decodes images using ImageIO at a reduced resolution. If ImageIO cannot
+     * decode the image, the image is decoded at full resolution with
+     * ImageIcon (for JPEG images) or Sanselan.
+     */
+    private static class ImageDecoder implements ThumbnailDecoder {
+
+        private final boolean jpeg;
+
+        ImageDecoder(boolean jpeg) {
+            this.jpeg = jpeg;
+        }
+
+        @Override
+        public Image decode(File file, int width, int height) throws IOException {
+            // Decode the image at a reduced resolution if there is an ImageIO reader
+            // for the format so that large scans are not fully decoded.
+            Image result;
+            try {
+                result = ImageUtility.readSubsampled(file, width, height);
+            } catch (IOException ex) {
+                // The ImageIO reader could not decode the image (e.g. a CMYK JPEG)
+                result = null;
+            }
+            if (result == null) {
+                if (jpeg) {
+                    result = new ImageIcon(file.getPath()).getImage();
+                } else {
+                    try {
+                        result = Sanselan.getBufferedImage(file);
+                    } catch (ImageReadException ex) {
+                        throw new IOException(ex.getMessage(), ex);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}
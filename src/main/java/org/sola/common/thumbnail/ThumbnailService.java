@@ -0,0 +1,241 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.thumbnail;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import org.sola.common.FileUtility;
+import org.sola.common.logging.LogUtility;
+
+/**
+ * Creates thumbnails on a bounded pool of background threads so that the
+ * Swing thread is not blocked while large images and PDF documents are
+ * decoded. Thumbnails for a list of documents are created concurrently
+ * across the available processors.
+ *
+ * <p>Requests are queued by priority. Requests with a higher priority (e.g.
+ * for documents that are currently visible) are processed before requests
+ * with a lower priority. Requests with the same priority are processed in
+ * the order they are submitted. A request that is no longer required (e.g.
+ * because the document has scrolled out of view) can be cancelled using the
+ * Future returned when the request is submitted.</p>
+ *
+ * @author soladev
+ */
+public class ThumbnailService {
+
+    /**
+     * Priority for thumbnails of documents that are visible to the user.
+     */
+    public static final int PRIORITY_VISIBLE = 10;
+    /**
+     * Priority for thumbnails that are not immediately required.
+     */
+    public static final int PRIORITY_NORMAL = 5;
+    /**
+     * Priority for thumbnails that are created in advance of being required.
+     */
+    public static final int PRIORITY_BACKGROUND = 0;
+    private static ThumbnailService defaultService = null;
+    private final ThreadPoolExecutor executor;
+    private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<Runnable>();
+    private final AtomicLong sequence = new AtomicLong(0);
+
+    /**
+     * Creates a thumbnail service with the specified number of worker
+     * threads. The worker threads are daemon threads so they will not prevent
+     * the application from exiting and they are stopped when they have been
+     * idle for 30 seconds.
+     *
+     * @param numThreads The maximum number of thumbnails to create at the
+     * same time.
+     */
+    public ThumbnailService(int numThreads) {
+        numThreads = Math.max(1, numThreads);
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        executor = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS, queue,
+                new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "SOLA Thumbnail " + threadCount.incrementAndGet());
+                        t.setDaemon(true);
+                        // Keep the user interface responsive while thumbnails are created
+                        t.setPriority(Thread.NORM_PRIORITY - 1);
+                        return t;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the shared thumbnail service. The shared service uses one
+     * worker thread per available processor.
+     */
+    public static synchronized ThumbnailService getDefault() {
+        if (defaultService == null) {
+            defaultService = new ThumbnailService(Runtime.getRuntime().availableProcessors());
+        }
+        return defaultService;
+    }
+
+    /**
+     * Requests a thumbnail for the file.
+     *
+     * @param filePath The full path of the file.
+     * @param width The maximum width of the thumbnail.
+     * @param height The maximum height of the thumbnail.
+     * @param priority The priority of the request. See
+     * {@linkplain #PRIORITY_VISIBLE}, {@linkplain #PRIORITY_NORMAL} and
+     * {@linkplain #PRIORITY_BACKGROUND}.
+     * @param callback The callback to notify when the thumbnail has been
+     * created. Can be null.
+     * @return A Future that can be used to obtain the thumbnail or cancel the
+     * request. The thumbnail will be null if one could not be created for the
+     * file.
+     */
+    public Future<BufferedImage> submit(String filePath, int width, int height, int priority,
+            ThumbnailCallback callback) {
+        ThumbnailTask task = new ThumbnailTask(filePath, width, height, priority, callback);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Requests a thumbnail for the file with {@linkplain #PRIORITY_NORMAL}.
+     *
+     * @see #submit(java.lang.String, int, int, int,
+     * org.sola.common.thumbnail.ThumbnailCallback)
+     */
+    public Future<BufferedImage> submit(String filePath, int width, int height,
+            ThumbnailCallback callback) {
+        return submit(filePath, width, height, PRIORITY_NORMAL, callback);
+    }
+
+    /**
+     * Cancels all of the requests that are waiting to be processed. Requests
+     * that are already being processed are allowed to complete.
+     */
+    public void cancelAll() {
+        for (Runnable r : queue.toArray(new Runnable[0])) {
+            ((Future<?>) r).cancel(false);
+        }
+        executor.purge();
+    }
+
+    /**
+     * Returns the number of requests that are waiting to be processed.
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Stops the worker threads. Requests that are waiting to be processed are
+     * discarded.
+     */
+    public void shutdown() {
+        cancelAll();
+        executor.shutdown();
+    }
+
+    /**
+     * Creates the thumbnail. Called on a worker thread.
+     *
+     * @param filePath The full path of the file.
+     * @param width The maximum width of the thumbnail.
+     * @param height The maximum height of the thumbnail.
+     * @return The thumbnail or null if a thumbnail cannot be created for the
+     * file.
+     */
+    protected BufferedImage createThumbnail(String filePath, int width, int height) {
+        return FileUtility.createImageThumbnail(filePath, width, height);
+    }
+
+    /**
+     * A thumbnail request. Requests are ordered by priority and then by the
+     * order they were submitted.
+     */
+    private class ThumbnailTask extends FutureTask<BufferedImage>
+            implements Comparable<ThumbnailTask> {
+
+        private final String filePath;
+        private final int priority;
+        private final long seq;
+        private final ThumbnailCallback callback;
+
+        ThumbnailTask(final String filePath, final int width, final int height, int priority,
+                ThumbnailCallback callback) {
+            super(new Callable<BufferedImage>() {
+
+                @Override
+                public BufferedImage call() {
+                    return createThumbnail(filePath, width, height);
+                }
+            });
+            this.filePath = filePath;
+            this.priority = priority;
+            this.callback = callback;
+            this.seq = sequence.incrementAndGet();
+        }
+
+        @Override
+        public int compareTo(ThumbnailTask other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return seq < other.seq ? -1 : (seq == other.seq ? 0 : 1);
+        }
+
+        @Override
+        protected void done() {
+            if (callback == null || isCancelled()) {
+                return;
+            }
+            BufferedImage thumbnail = null;
+            try {
+                thumbnail = get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                LogUtility.log("Unable to generate thumbnail - " + ex.getCause(), Level.WARNING);
+            }
+            callback.thumbnailCreated(filePath, thumbnail);
+        }
+    }
+}
@@ -0,0 +1,458 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.staxex.StreamingDataHandler;
+import org.sola.common.cache.DocumentCache;
+import org.sola.common.cache.DocumentCache.Verification;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@linkplain FileUtility}.
+ *
+ * @author soladev
+ */
+public class FileUtilityTest {
+
+    private static final String FILE_NAME = "sola_1_2.pdf";
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("solacache", "");
+        directory.delete();
+        directory.mkdirs();
+        FileUtility.setCachePath(directory.getPath() + File.separator);
+        FileUtility.setAsyncCacheMaintenance(false);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtility.closeDocumentCache();
+        FileUtility.setMemoryCacheTier(0, 0, null);
+        FileUtility.setMinNumberCachedFiles(10);
+        FileUtility.setResizedCacheSizeBytes(120 * 1024 * 1024);
+        FileUtility.setCompressedCacheExtensions();
+        FileUtility.setCacheVerification(Verification.NONE, 1);
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * A data source that counts the number of times its content is read. The
+     * first read of the content waits until the gate is opened so that other
+     * saves of the same file can start while this one is in progress.
+     */
+    private static class GatedDataSource implements DataSource {
+
+        private final byte[] content;
+        private final CountDownLatch gate;
+        private final CountDownLatch reading;
+        private final boolean fail;
+        private final AtomicInteger reads;
+
+        GatedDataSource(byte[] content, CountDownLatch gate, CountDownLatch reading,
+                boolean fail, AtomicInteger reads) {
+            this.content = content;
+            this.gate = gate;
+            this.reading = reading;
+            this.fail = fail;
+            this.reads = reads;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            reads.incrementAndGet();
+            reading.countDown();
+            return new FilterInputStream(new ByteArrayInputStream(content)) {
+
+                private boolean opened = false;
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (!opened) {
+                        opened = true;
+                        try {
+                            gate.await();
+                        } catch (InterruptedException ex) {
+                            throw new IOException(ex.getMessage());
+                        }
+                        if (fail) {
+                            throw new IOException("Transfer failed");
+                        }
+                    }
+                    return super.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("Not supported");
+        }
+
+        @Override
+        public String getContentType() {
+            return "application/pdf";
+        }
+
+        @Override
+        public String getName() {
+            return FILE_NAME;
+        }
+    }
+
+    private static Callable<String> save(final DataSource source) {
+        return new Callable<String>() {
+
+            @Override
+            public String call() {
+                return FileUtility.saveFileFromStream(new DataHandler(source), FILE_NAME);
+            }
+        };
+    }
+
+    /**
+     * Waits until the number of callers waiting for the save in progress
+     * reaches the expected count. The test times out if it is not reached.
+     */
+    private static void awaitWaitingSaves(int count) throws InterruptedException {
+        while (FileUtility.getWaitingSaveCount() < count) {
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Concurrent saves of the same file are coalesced so the content is only
+     * read and written once.
+     */
+    @Test(timeout = 30000)
+    public void testSaveFileFromStreamCoalescesConcurrentSaves() throws Exception {
+        byte[] content = new byte[5000];
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch reading = new CountDownLatch(1);
+        AtomicInteger reads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            results.add(executor.submit(save(
+                    new GatedDataSource(content, gate, reading, false, reads))));
+            assertTrue(reading.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(save(
+                        new GatedDataSource(content, gate, reading, false, reads))));
+            }
+            awaitWaitingSaves(4);
+            gate.countDown();
+            for (Future<String> result : results) {
+                assertEquals(FILE_NAME, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, reads.get());
+        assertTrue(FileUtility.isCached(FILE_NAME));
+        assertEquals(content.length, FileUtility.readFileFromCache(FILE_NAME).length);
+    }
+
+    /**
+     * If the save in progress fails, a caller that was waiting for it saves
+     * the file from its own data.
+     */
+    @Test(timeout = 30000)
+    public void testSaveFileFromStreamRetriesAfterFailedSave() throws Exception {
+        byte[] content = new byte[5000];
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch reading = new CountDownLatch(1);
+        AtomicInteger reads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> failed = executor.submit(save(
+                    new GatedDataSource(content, gate, reading, true, reads)));
+            assertTrue(reading.await(10, TimeUnit.SECONDS));
+            Future<String> waiting = executor.submit(save(
+                    new GatedDataSource(content, gate, reading, false, reads)));
+            awaitWaitingSaves(1);
+            gate.countDown();
+            try {
+                failed.get();
+                fail("The failed save should report an error");
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof SOLAException);
+            }
+            assertEquals(FILE_NAME, waiting.get());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, reads.get());
+        assertEquals(content.length, FileUtility.readFileFromCache(FILE_NAME).length);
+    }
+
+    /**
+     * A document evicted from the cache is also removed from the memory
+     * tier, so it is not read from memory after it has been evicted.
+     */
+    @Test
+    public void testEvictedDocumentRemovedFromMemoryTier() {
+        FileUtility.setMemoryCacheTier(1024 * 1024, 64 * 1024, null);
+        FileUtility.setMinNumberCachedFiles(0);
+        FileUtility.setResizedCacheSizeBytes(0);
+        FileUtility.writeFileToCache(new byte[1000], FILE_NAME);
+        assertEquals(1000, FileUtility.readFileFromCache(FILE_NAME).length);
+
+        assertEquals(1000, FileUtility.trimCache());
+        assertFalse(FileUtility.isCached(FILE_NAME));
+        assertNull(FileUtility.readFileFromCache(FILE_NAME));
+    }
+
+    /**
+     * Returns content that can be compressed, with the byte values depending
+     * on the seed so different content can be created.
+     */
+    private static byte[] createContent(int length, int seed) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) ((i / 64 + seed) % 26 + 'a');
+        }
+        return content;
+    }
+
+    /**
+     * A document with an extension configured for compression is stored
+     * compressed and is decompressed when it is read. The extension is not
+     * case sensitive.
+     */
+    @Test
+    public void testCompressedRoundTrip() {
+        FileUtility.setCompressedCacheExtensions("TIF");
+        byte[] content = createContent(20000, 0);
+        File file = FileUtility.writeFileToCache(content, "scan_1_1.tif");
+        assertEquals("scan_1_1.tif" + DocumentCache.COMPRESSED_SUFFIX, file.getName());
+        assertTrue(file.length() < content.length);
+        assertTrue(FileUtility.isCached("scan_1_1.tif"));
+        assertArrayEquals(content, FileUtility.readFileFromCache("scan_1_1.tif"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(content.length, FileUtility.readFileFromCache("scan_1_1.tif", out));
+        assertArrayEquals(content, out.toByteArray());
+    }
+
+    /**
+     * Writing an uncompressed copy of a document replaces the compressed
+     * copy, so only one copy of the document remains in the cache.
+     */
+    @Test
+    public void testUncompressedCopyReplacesCompressedCopy() {
+        FileUtility.setCompressedCacheExtensions("tif");
+        File compressed = FileUtility.writeFileToCache(createContent(20000, 0), "scan_1_1.tif");
+        assertTrue(compressed.exists());
+
+        FileUtility.setCompressedCacheExtensions();
+        byte[] content = createContent(15000, 1);
+        File file = FileUtility.writeFileToCache(content, "scan_1_1.tif");
+        assertEquals("scan_1_1.tif", file.getName());
+        assertFalse(compressed.exists());
+        assertArrayEquals(content, FileUtility.readFileFromCache("scan_1_1.tif"));
+        assertEquals(content.length, FileUtility.getCacheSize());
+    }
+
+    /**
+     * Changes a byte in the middle of the file without changing its size.
+     */
+    private static void corrupt(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long position = raf.length() / 2;
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0xff);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * A cached document that does not match its checksum is removed from
+     * the cache when it is read.
+     */
+    @Test
+    public void testCorruptFileRemoved() throws IOException {
+        FileUtility.setCacheVerification(Verification.ALWAYS, 1);
+        byte[] content = createContent(5000, 0);
+        File file = FileUtility.writeFileToCache(content, FILE_NAME);
+        assertArrayEquals(content, FileUtility.readFileFromCache(FILE_NAME));
+
+        corrupt(file);
+        assertNull(FileUtility.readFileFromCache(FILE_NAME));
+        assertFalse(file.exists());
+        assertFalse(FileUtility.isCached(FILE_NAME));
+        assertEquals(1, FileUtility.getCacheStatistics().getCorruptionCount());
+    }
+
+    /**
+     * The checksum of a document moved into the cache by a
+     * StreamingDataHandler is calculated from the moved file, so corruption
+     * of the file is detected.
+     */
+    @Test
+    public void testCorruptMovedFileRemoved() throws IOException {
+        FileUtility.setCacheVerification(Verification.ALWAYS, 1);
+        final byte[] content = createContent(5000, 0);
+        AtomicInteger reads = new AtomicInteger();
+        DataSource source = new GatedDataSource(content, new CountDownLatch(0),
+                new CountDownLatch(1), false, reads);
+        StreamingDataHandler handler = new StreamingDataHandler(source) {
+
+            @Override
+            public void moveTo(File file) throws IOException {
+                FileOutputStream out = new FileOutputStream(file);
+                try {
+                    out.write(content);
+                } finally {
+                    out.close();
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public InputStream readOnce() throws IOException {
+                return getInputStream();
+            }
+        };
+        assertEquals(FILE_NAME, FileUtility.saveFileFromStream(handler, FILE_NAME));
+        assertEquals(0, reads.get());
+        assertArrayEquals(content, FileUtility.readFileFromCache(FILE_NAME));
+
+        File file = new File(directory, FILE_NAME);
+        corrupt(file);
+        assertNull(FileUtility.readFileFromCache(FILE_NAME));
+        assertFalse(file.exists());
+    }
+
+    /**
+     * A FileInputStream is transferred between the file channels. If part of
+     * the stream has already been read, only the remainder is written.
+     */
+    @Test
+    public void testWriteFileFromFileStream() throws IOException {
+        byte[] content = createContent(100000, 0);
+        File source = new File(directory, "source.bin");
+        FileUtility.writeFile(new ByteArrayInputStream(content), source);
+        File target = new File(directory, "target.bin");
+        FileUtility.writeFile(new FileInputStream(source), target);
+        assertArrayEquals(content, FileUtility.readFile(target));
+
+        FileInputStream in = new FileInputStream(source);
+        assertEquals(1000, in.skip(1000));
+        FileUtility.writeFile(in, target);
+        byte[] remainder = new byte[content.length - 1000];
+        System.arraycopy(content, 1000, remainder, 0, remainder.length);
+        assertArrayEquals(remainder, FileUtility.readFile(target));
+
+        File empty = new File(directory, "empty.bin");
+        FileUtility.writeFile(new ByteArrayInputStream(new byte[0]), empty);
+        FileUtility.writeFile(new FileInputStream(empty), target);
+        assertEquals(0, target.length());
+    }
+
+    /**
+     * A stream that is not backed by a file channel (e.g. a channel created
+     * from an InputStream) is copied using the buffers.
+     */
+    @Test
+    public void testWriteFileFromChannel() throws IOException {
+        byte[] content = createContent(100000, 0);
+        File target = new File(directory, "target.bin");
+        FileUtility.writeFile(Channels.newInputStream(
+                Channels.newChannel(new ByteArrayInputStream(content))), target);
+        assertArrayEquals(content, FileUtility.readFile(target));
+
+        File file = FileUtility.writeFileToCache(
+                Channels.newChannel(new ByteArrayInputStream(content)), FILE_NAME);
+        assertEquals(content.length, file.length());
+        assertArrayEquals(content, FileUtility.readFileFromCache(FILE_NAME));
+    }
+
+    /**
+     * Only buffers mapped from a file are released by unmap. A direct buffer
+     * allocated with ByteBuffer.allocateDirect must remain usable.
+     */
+    @Test
+    public void testUnmapOnlyReleasesMappedBuffers() {
+        ByteBuffer direct = ByteBuffer.allocateDirect(1024);
+        direct.putInt(0, 42);
+        assertFalse(FileUtility.unmap(direct));
+        assertEquals(42, direct.getInt(0));
+        assertFalse(FileUtility.unmap(ByteBuffer.allocate(1024)));
+
+        File file = FileUtility.writeFileToCache(new byte[1000], FILE_NAME);
+        ByteBuffer mapped = FileUtility.getFileBuffer(file.getPath());
+        assertEquals(1000, mapped.capacity());
+        assertFalse(FileUtility.unmap(mapped.duplicate()));
+        assertTrue(FileUtility.unmap(mapped));
+    }
+}
@@ -0,0 +1,437 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@linkplain DocumentCache}.
+ *
+ * @author soladev
+ */
+public class DocumentCacheTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("solacache", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Writes a file to the cache directory and adds it to the index.
+     */
+    private CacheEntry write(DocumentCache cache, String name, int size, long checksum)
+            throws IOException {
+        File file = cache.getStoredFile(name);
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[size]);
+        } finally {
+            out.close();
+        }
+        return cache.put(name, size, checksum);
+    }
+
+    /**
+     * The index loaded from a snapshot has the same entries, checksums and
+     * access counts as the index the snapshot was saved from.
+     */
+    @Test
+    public void testSnapshotRoundTrip() throws IOException {
+        DocumentCache cache = new DocumentCache(directory);
+        write(cache, "a.pdf", 100, 11);
+        write(cache, "b.pdf", 200, 22);
+        write(cache, "c.tif", 300, 33);
+        cache.touch("a.pdf");
+        cache.touch("a.pdf");
+        cache.touch("c.tif");
+        cache.saveSnapshot();
+        assertTrue(CacheSnapshot.getSnapshotFile(directory).exists());
+
+        DocumentCache loaded = new DocumentCache(directory);
+        assertEquals(3, loaded.getEntryCount());
+        assertEquals(600, loaded.getTotalSize());
+        for (CacheEntry expected : cache.getEntries()) {
+            CacheEntry entry = loaded.get(expected.getName());
+            assertNotNull(expected.getName(), entry);
+            assertEquals(expected.getSize(), entry.getSize());
+            assertEquals(expected.getChecksum(), entry.getChecksum());
+            assertEquals(expected.getAccessCount(), entry.getAccessCount());
+            assertEquals(expected.getLastModified(), entry.getLastModified());
+        }
+        assertEquals(2, loaded.get("a.pdf").getAccessCount());
+    }
+
+    /**
+     * If the cache directory has changed since the snapshot was saved, the
+     * directory is listed but the details from the snapshot are kept for the
+     * files that have not changed.
+     */
+    @Test
+    public void testStaleSnapshotKeepsDetailsOfUnchangedFiles() throws IOException {
+        DocumentCache cache = new DocumentCache(directory);
+        write(cache, "a.pdf", 100, 11);
+        cache.touch("a.pdf");
+        cache.saveSnapshot();
+        // Another process adds a file after the snapshot was saved
+        FileOutputStream out = new FileOutputStream(new File(directory, "b.pdf"));
+        out.write(new byte[50]);
+        out.close();
+        directory.setLastModified(directory.lastModified() + 2000);
+
+        DocumentCache loaded = new DocumentCache(directory);
+        assertEquals(2, loaded.getEntryCount());
+        assertEquals(150, loaded.getTotalSize());
+        CacheEntry entry = loaded.get("a.pdf");
+        assertEquals(11, entry.getChecksum());
+        assertEquals(1, entry.getAccessCount());
+        assertEquals(CacheEntry.NO_CHECKSUM, loaded.get("b.pdf").getChecksum());
+    }
+
+    /**
+     * The snapshot is deleted when the cache is modified so that a stale
+     * snapshot is not loaded after a crash.
+     */
+    @Test
+    public void testSnapshotDeletedWhenModified() throws IOException {
+        DocumentCache cache = new DocumentCache(directory);
+        write(cache, "a.pdf", 100, 11);
+        cache.saveSnapshot();
+
+        DocumentCache loaded = new DocumentCache(directory);
+        assertEquals(1, loaded.getEntryCount());
+        assertTrue(CacheSnapshot.getSnapshotFile(directory).exists());
+        write(loaded, "b.pdf", 100, 22);
+        assertFalse(CacheSnapshot.getSnapshotFile(directory).exists());
+    }
+
+    /**
+     * A snapshot saved while the cache is open is deleted when the cache is
+     * next modified, so the index is not loaded from the stale snapshot if
+     * the application then crashes. In a sharded cache, adding a file to an
+     * existing shard does not change the cache directory, so the stale
+     * snapshot would otherwise appear to be valid.
+     */
+    @Test
+    public void testSnapshotSavedThenModifiedIsNotLoaded() throws IOException {
+        DocumentCache cache = new DocumentCache(directory);
+        cache.setSharded(true);
+        write(cache, "a.pdf", 100, 11);
+        cache.saveSnapshot();
+        assertTrue(CacheSnapshot.getSnapshotFile(directory).exists());
+        // Write a second file to the same shard as the first
+        String name = null;
+        for (int i = 0; name == null; i++) {
+            String candidate = "b" + i + ".pdf";
+            if (DocumentCache.getShardPath(candidate).equals(DocumentCache.getShardPath("a.pdf"))) {
+                name = candidate;
+            }
+        }
+        write(cache, name, 50, 22);
+        assertFalse(CacheSnapshot.getSnapshotFile(directory).exists());
+
+        // The cache is not closed, as if the application crashed
+        DocumentCache loaded = new DocumentCache(directory);
+        loaded.setSharded(true);
+        assertTrue(loaded.contains(name));
+        assertEquals(2, loaded.getEntryCount());
+        assertEquals(150, loaded.getTotalSize());
+    }
+
+    /**
+     * A sharded cache is not loaded from a snapshot of a flat cache.
+     */
+    @Test
+    public void testSnapshotNotUsedForDifferentLayout() throws IOException {
+        DocumentCache cache = new DocumentCache(directory);
+        write(cache, "a.pdf", 100, 11);
+        cache.saveSnapshot();
+
+        DocumentCache sharded = new DocumentCache(directory);
+        sharded.setSharded(true);
+        assertEquals(1, sharded.getEntryCount());
+        assertTrue(sharded.getStoredFile("a.pdf").isFile());
+        assertFalse(new File(directory, "a.pdf").exists());
+    }
+
+    /**
+     * The removal listener is notified of each document stored in a file
+     * that is evicted or found to be missing.
+     */
+    @Test
+    public void testRemovalListener() throws IOException {
+        DocumentCache cache = new DocumentCache(directory);
+        cache.setContentAddressed(true);
+        final Set<String> removed = new HashSet<String>();
+        cache.setRemovalListener(new CacheRemovalListener() {
+
+            @Override
+            public void documentRemoved(String name) {
+                removed.add(name);
+            }
+        });
+        store(cache, "a.pdf", "1234.pdf");
+        store(cache, "b.pdf", "1234.pdf");
+        write(cache, "c.pdf", 100, 11);
+        cache.touch("c.pdf");
+        // Evict the content file, which is the least recently used
+        assertEquals(10, cache.trim(101, 0));
+        assertTrue(removed.contains("a.pdf"));
+        assertTrue(removed.contains("b.pdf"));
+        assertFalse(removed.contains("c.pdf"));
+
+        removed.clear();
+        assertTrue(cache.getFile("c.pdf").delete());
+        assertTrue(cache.removeIfMissing("c.pdf"));
+        assertEquals(new HashSet<String>(Arrays.asList("c.pdf")), removed);
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    /**
+     * Temporary files are created in a subdirectory so that writing a
+     * document does not cause the cache directory to be listed on the next
+     * refresh.
+     */
+    @Test
+    public void testTempFilesDoNotCauseRefresh() throws IOException {
+        DocumentCache cache = new DocumentCache(directory);
+        write(cache, "a.pdf", 100, 11);
+        cache.createTempFile(".sola").delete();
+        cache.refresh();
+
+        write(cache, "b.pdf", 100, 22);
+        assertFalse(cache.refresh());
+        File tmpFile = cache.createTempFile(".sola");
+        assertFalse(cache.refresh());
+        assertTrue(tmpFile.delete());
+        assertFalse(cache.refresh());
+        assertEquals(2, cache.getEntryCount());
+    }
+
+    /**
+     * Writes the content file and links the document to it the same way
+     * FileUtility does. The caller holds the write lock for the document.
+     */
+    private void store(DocumentCache cache, String name, String contentName)
+            throws IOException {
+        if (cache.contains(contentName) && cache.link(name, cache.resolve(contentName))) {
+            return;
+        }
+        File tmpFile = cache.createTempFile(name);
+        FileOutputStream out = new FileOutputStream(tmpFile);
+        try {
+            out.write(new byte[10]);
+        } finally {
+            out.close();
+        }
+        cache.addContent(name, contentName, tmpFile, CacheEntry.NO_CHECKSUM);
+        tmpFile.delete();
+    }
+
+    /**
+     * A content file is only deleted once the last document referencing it
+     * is removed.
+     */
+    @Test
+    public void testContentDeletedWhenNoLongerReferenced() throws IOException {
+        DocumentCache cache = new DocumentCache(directory);
+        cache.setContentAddressed(true);
+        store(cache, "a.pdf", "1234.pdf");
+        store(cache, "b.pdf", "1234.pdf");
+        assertEquals("1234.pdf", cache.resolve("a.pdf"));
+        assertEquals("1234.pdf", cache.resolve("b.pdf"));
+        assertEquals(1, cache.getEntryCount());
+
+        cache.unlink("a.pdf");
+        assertTrue(cache.contains("b.pdf"));
+        assertTrue(cache.getStoredFile("1234.pdf").exists());
+        cache.delete("b.pdf");
+        assertFalse(cache.contains("b.pdf"));
+        assertFalse(cache.getStoredFile("1234.pdf").exists());
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    /**
+     * Documents are linked to and unlinked from a small set of content files
+     * by several threads. Each thread holds the lock for its document as
+     * FileUtility does, so the threads also contend for the lock stripes.
+     * The test fails if the threads deadlock or if any document is left
+     * referencing a content file that was deleted.
+     */
+    @Test(timeout = 60000)
+    public void testLinkUnlinkUnderContention() throws Exception {
+        final DocumentCache cache = new DocumentCache(directory);
+        cache.setContentAddressed(true);
+        final int numDocuments = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Object>> results = new ArrayList<Future<Object>>();
+        for (int t = 0; t < 8; t++) {
+            final Random random = new Random(t);
+            results.add(executor.submit(new Callable<Object>() {
+
+                @Override
+                public Object call() throws Exception {
+                    for (int i = 0; i < 2000; i++) {
+                        String name = "doc" + random.nextInt(numDocuments) + ".pdf";
+                        Lock lock = cache.getLock(name).writeLock();
+                        lock.lock();
+                        try {
+                            if (random.nextInt(3) == 0) {
+                                cache.unlink(name);
+                            } else {
+                                store(cache, name, "content" + random.nextInt(4) + ".pdf");
+                            }
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        executor.shutdown();
+        assertTrue("Deadlock", executor.awaitTermination(50, TimeUnit.SECONDS));
+        for (Future<Object> result : results) {
+            result.get();
+        }
+        // Delete any content files that were locked when they were released
+        cache.trim(Long.MAX_VALUE, 0);
+
+        Set<String> referenced = new HashSet<String>();
+        for (int i = 0; i < numDocuments; i++) {
+            String name = "doc" + i + ".pdf";
+            String contentName = cache.resolve(name);
+            if (!contentName.equals(name)) {
+                assertNotNull(name + " references a deleted file", cache.get(name));
+                assertTrue(name + " references a deleted file",
+                        cache.getStoredFile(contentName).isFile());
+                referenced.add(contentName);
+            }
+        }
+        for (CacheEntry entry : cache.getEntries()) {
+            assertTrue(entry.getName() + " is not referenced", referenced.contains(entry.getName()));
+        }
+        for (String name : directory.list()) {
+            assertTrue(name + " is not indexed", name.startsWith(".")
+                    || referenced.contains(name));
+        }
+    }
+
+    /**
+     * Content files are evicted while other threads link documents to them.
+     * A document that has just been linked is locked by its writer, so the
+     * content file must not be evicted until the writer releases the lock.
+     */
+    @Test(timeout = 60000)
+    public void testTrimDoesNotDeleteNewlyLinkedContent() throws Exception {
+        final DocumentCache cache = new DocumentCache(directory);
+        cache.setContentAddressed(true);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        Future<?> trimmer = executor.submit(new Callable<Object>() {
+
+            @Override
+            public Object call() throws Exception {
+                while (!done.get()) {
+                    cache.trim(0, 0);
+                }
+                return null;
+            }
+        });
+        List<Future<Object>> results = new ArrayList<Future<Object>>();
+        for (int t = 0; t < 4; t++) {
+            final Random random = new Random(t);
+            results.add(executor.submit(new Callable<Object>() {
+
+                @Override
+                public Object call() throws Exception {
+                    for (int i = 0; i < 2000; i++) {
+                        String name = "doc" + random.nextInt(32) + ".pdf";
+                        Lock lock = cache.getLock(name).writeLock();
+                        lock.lock();
+                        try {
+                            store(cache, name, "content" + random.nextInt(2) + ".pdf");
+                            assertTrue(name + " references a deleted file",
+                                    cache.getFile(name).isFile());
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Object> result : results) {
+                result.get();
+            }
+        } finally {
+            done.set(true);
+            executor.shutdown();
+        }
+        trimmer.get();
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the {@linkplain EvictionPolicy} implementations.
+ *
+ * @author soladev
+ */
+public class EvictionPolicyTest {
+
+    /**
+     * Creates an entry and adds it to the policy.
+     */
+    private static CacheEntry insert(EvictionPolicy policy, String name, long size,
+            long lastAccessed) {
+        CacheEntry entry = new CacheEntry(name, size, lastAccessed);
+        policy.recordInsert(entry);
+        return entry;
+    }
+
+    /**
+     * Records accesses of the entry without changing its last accessed time.
+     */
+    private static void access(EvictionPolicy policy, CacheEntry entry, int count) {
+        for (int i = 0; i < count; i++) {
+            entry.setAccessCount(entry.getAccessCount() + 1);
+            policy.recordAccess(entry);
+        }
+    }
+
+    private static List<String> order(EvictionPolicy policy, CacheEntry... entries) {
+        List<String> result = new ArrayList<String>();
+        for (CacheEntry entry : policy.orderForEviction(Arrays.asList(entries))) {
+            result.add(entry.getName());
+        }
+        return result;
+    }
+
+    /**
+     * The least recently accessed file is evicted first.
+     */
+    @Test
+    public void testLru() {
+        EvictionPolicy policy = new LruEvictionPolicy();
+        CacheEntry a = insert(policy, "a", 10, 3000);
+        CacheEntry b = insert(policy, "b", 10, 1000);
+        CacheEntry c = insert(policy, "c", 10, 2000);
+        access(policy, b, 5);
+        assertEquals(Arrays.asList("b", "c", "a"), order(policy, a, b, c));
+    }
+
+    /**
+     * The least frequently accessed file is evicted first. Files accessed
+     * the same number of times are evicted in LRU order.
+     */
+    @Test
+    public void testLfu() {
+        EvictionPolicy policy = new LfuEvictionPolicy();
+        CacheEntry a = insert(policy, "a", 10, 1000);
+        CacheEntry b = insert(policy, "b", 10, 3000);
+        CacheEntry c = insert(policy, "c", 10, 2000);
+        access(policy, a, 3);
+        access(policy, b, 1);
+        access(policy, c, 1);
+        assertEquals(Arrays.asList("c", "b", "a"), order(policy, a, b, c));
+    }
+
+    /**
+     * With a cost of 1, large files are evicted before small files.
+     */
+    @Test
+    public void testGreedyDualSizeEvictsLargeFilesFirst() {
+        EvictionPolicy policy = new GreedyDualSizeEvictionPolicy();
+        CacheEntry small = insert(policy, "small", 10, 1000);
+        CacheEntry large = insert(policy, "large", 1000, 2000);
+        CacheEntry medium = insert(policy, "medium", 100, 3000);
+        assertEquals(Arrays.asList("large", "medium", "small"),
+                order(policy, small, large, medium));
+    }
+
+    /**
+     * With the cost proportional to the size, files inserted after an
+     * eviction are ranked above the existing files regardless of their last
+     * accessed time, so older files age out of the cache.
+     */
+    @Test
+    public void testGreedyDualSizeAging() {
+        EvictionPolicy policy = new GreedyDualSizeEvictionPolicy(true);
+        CacheEntry a = insert(policy, "a", 10, 2000);
+        CacheEntry b = insert(policy, "b", 1000, 3000);
+        assertEquals(Arrays.asList("a", "b"), order(policy, a, b));
+        policy.recordEviction(a);
+        CacheEntry c = insert(policy, "c", 100, 1000);
+        assertEquals(Arrays.asList("b", "c"), order(policy, b, c));
+        policy.recordAccess(b);
+        assertEquals(Arrays.asList("c", "b"), order(policy, b, c));
+    }
+
+    /**
+     * A new file that has been accessed less often than the file the
+     * underlying policy would evict is rejected. It is kept until room is
+     * needed for the next new file and is then evicted first.
+     */
+    @Test
+    public void testTinyLfuRejectsInfrequentFile() {
+        EvictionPolicy policy = new TinyLfuEvictionPolicy();
+        CacheEntry a = insert(policy, "a", 10, 1000);
+        CacheEntry b = insert(policy, "b", 10, 2000);
+        access(policy, a, 2);
+        access(policy, b, 2);
+
+        policy.recordAdmission(new CacheEntry("x", 10, 3000), Arrays.asList(a, b));
+        CacheEntry x = insert(policy, "x", 10, 3000);
+        // The rejected file is not evicted while its caller may still be using it
+        assertEquals(Arrays.asList("a", "b", "x"), order(policy, a, b, x));
+
+        policy.recordAdmission(new CacheEntry("y", 10, 4000), Arrays.asList(a, b, x));
+        assertEquals(Arrays.asList("x", "a", "b"), order(policy, a, b, x));
+        policy.recordEviction(x);
+        CacheEntry y = insert(policy, "y", 10, 4000);
+        policy.recordAdmission(new CacheEntry("z", 10, 5000), Arrays.asList(a, b, y));
+        assertEquals(Arrays.asList("y", "a", "b"), order(policy, a, b, y));
+    }
+
+    /**
+     * A new file that has been accessed more often than the file the
+     * underlying policy would evict is admitted, so the existing files are
+     * evicted first. The admission test is made for the incoming file, not
+     * the file added to the cache most recently.
+     */
+    @Test
+    public void testTinyLfuAdmitsFrequentFile() {
+        EvictionPolicy policy = new TinyLfuEvictionPolicy();
+        CacheEntry a = insert(policy, "a", 10, 1000);
+        // x was cached and used several times before it was evicted
+        CacheEntry old = insert(policy, "x", 10, 500);
+        access(policy, old, 4);
+        policy.recordEviction(old);
+        // b is frequently used and is the most recently added file
+        CacheEntry b = insert(policy, "b", 10, 2000);
+        access(policy, b, 8);
+
+        policy.recordAdmission(new CacheEntry("x", 10, 3000), Arrays.asList(a, b));
+        CacheEntry x = insert(policy, "x", 10, 3000);
+        policy.recordAdmission(new CacheEntry("y", 10, 4000), Arrays.asList(a, b, x));
+        assertEquals(Arrays.asList("a", "b", "x"), order(policy, a, b, x));
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.thumbnail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@linkplain FormatSniffer}.
+ *
+ * @author soladev
+ */
+public class FormatSnifferTest {
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+
+    private static byte[] bytes(String text) {
+        byte[] result = new byte[text.length()];
+        for (int i = 0; i < text.length(); i++) {
+            result[i] = (byte) text.charAt(i);
+        }
+        return result;
+    }
+
+    private static String sniff(byte[] header) {
+        byte[] padded = new byte[FormatSniffer.HEADER_LENGTH];
+        System.arraycopy(header, 0, padded, 0, Math.min(header.length, padded.length));
+        return FormatSniffer.sniff(padded, Math.min(header.length, padded.length));
+    }
+
+    @Test
+    public void testSignatures() {
+        Object[][] cases = {
+            {bytes(0xFF, 0xD8, 0xFF, 0xE0, 0x00, 0x10, 'J', 'F', 'I', 'F'), FormatSniffer.JPEG},
+            {bytes(0xFF, 0xD8, 0xFF, 0xE1), FormatSniffer.JPEG},
+            {bytes(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0, 0, 0x0D), FormatSniffer.PNG},
+            {bytes("GIF87a"), FormatSniffer.GIF},
+            {bytes("GIF89a"), FormatSniffer.GIF},
+            {bytes('I', 'I', 0x2A, 0x00, 0x08, 0, 0, 0), FormatSniffer.TIFF},
+            {bytes('M', 'M', 0x00, 0x2A, 0, 0, 0, 0x08), FormatSniffer.TIFF},
+            {bytes("%PDF-1.4\n"), FormatSniffer.PDF},
+            {bytes("\r\n%PDF-1.7"), FormatSniffer.PDF},
+            {bytes('B', 'M', 0x36, 0x10, 0, 0, 0, 0, 0, 0, 0x36, 0, 0, 0), FormatSniffer.BMP},
+            {bytes("8BPS"), FormatSniffer.PSD},
+            {bytes(0, 0, 1, 0, 1, 0), FormatSniffer.ICO},
+            {bytes("P1\n"), FormatSniffer.PNM},
+            {bytes("P4 "), FormatSniffer.PNM},
+            {bytes("P6\n640 480\n255\n"), FormatSniffer.PNM}
+        };
+        for (Object[] c : cases) {
+            assertEquals(c[1], sniff((byte[]) c[0]));
+        }
+    }
+
+    @Test
+    public void testUnknownOrShortHeaders() {
+        byte[][] cases = {
+            bytes(),
+            bytes(0xFF, 0xD8),
+            bytes(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A),
+            bytes("GIF"),
+            bytes('I', 'I', 0x2A),
+            bytes('I', 'I', 0x00, 0x2A),
+            bytes('M', 'M', 0x2A, 0x00),
+            bytes("%PD"),
+            bytes("BMP is not a bitmap"),
+            bytes(0, 0, 1, 0, 0, 0),
+            bytes("P7\n"),
+            bytes("P6"),
+            bytes("Plain text file"),
+            bytes("PK\u0003\u0004")
+        };
+        for (byte[] c : cases) {
+            assertNull(new String(c), sniff(c));
+        }
+    }
+
+    @Test
+    public void testOnlyLengthBytesAreChecked() {
+        byte[] header = bytes(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A);
+        assertEquals(FormatSniffer.PNG, FormatSniffer.sniff(header, 8));
+        assertNull(FormatSniffer.sniff(header, 7));
+        assertNull(FormatSniffer.sniff(header, 0));
+    }
+
+    @Test
+    public void testSniffFile() throws IOException {
+        File file = File.createTempFile("sniff", ".dat");
+        try {
+            write(file, bytes(0xFF, 0xD8, 0xFF, 0xDB));
+            assertEquals(FormatSniffer.JPEG, FormatSniffer.sniff(file));
+            write(file, bytes("GIF"));
+            assertNull(FormatSniffer.sniff(file));
+            write(file, bytes());
+            assertNull(FormatSniffer.sniff(file));
+        } finally {
+            file.delete();
+        }
+        assertNull(FormatSniffer.sniff(file));
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.thumbnail;
+
+import java.awt.image.BufferedImage;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@linkplain ImageUtility}.
+ *
+ * @author soladev
+ */
+public class ImageUtilityTest {
+
+    @Test
+    public void testGetSubsampling() {
+        // srcWidth, srcHeight, width, height, expected subsampling
+        int[][] cases = {
+            {399, 399, 200, 200, 1},
+            {400, 400, 200, 200, 1},
+            {799, 799, 200, 200, 1},
+            {800, 800, 200, 200, 2},
+            {1199, 1199, 200, 200, 2},
+            {1200, 1200, 200, 200, 3},
+            {100, 100, 200, 200, 1},
+            {4000, 3000, 200, 200, 7},
+            {3000, 4000, 200, 200, 7},
+            {4000, 3000, 200, 0, 10},
+            {4000, 3000, 0, 200, 7},
+            {4000, 3000, -1, 200, 7},
+            {4000, 3000, 0, 0, 1},
+            {4000, 3000, -1, -1, 1},
+            {1, 1, 1, 1, 1},
+            {Integer.MAX_VALUE, Integer.MAX_VALUE, 1, 1, Integer.MAX_VALUE / 2}
+        };
+        for (int[] c : cases) {
+            assertEquals(c[0] + "x" + c[1] + " -> " + c[2] + "x" + c[3], c[4],
+                    ImageUtility.getSubsampling(c[0], c[1], c[2], c[3]));
+        }
+    }
+
+    @Test
+    public void testScale() {
+        // srcWidth, srcHeight, width, height, expected width, expected height
+        int[][] cases = {
+            {200, 100, 200, 100, 200, 100},
+            {100, 50, 200, 200, 100, 50},
+            {201, 100, 200, 100, 200, 100},
+            {1000, 1000, 200, 200, 200, 200},
+            {1000, 500, 200, 0, 200, 100},
+            {500, 1000, 0, 200, 100, 200},
+            {1000, 500, 0, 0, 1000, 500},
+            {1000, 500, 300, 300, 300, 300},
+            {1000, 1, 10, 0, 10, 1},
+            {1, 1000, 0, 10, 1, 10},
+            {1000, 1000, 1, 1, 1, 1},
+            {1000, 100, 150, 150, 150, 150}
+        };
+        for (int[] c : cases) {
+            BufferedImage image = new BufferedImage(c[0], c[1], BufferedImage.TYPE_INT_RGB);
+            BufferedImage result = ImageUtility.scale(image, c[2], c[3]);
+            String message = c[0] + "x" + c[1] + " -> " + c[2] + "x" + c[3];
+            assertEquals(message, c[4], result.getWidth());
+            assertEquals(message, c[5], result.getHeight());
+            assertEquals(message, BufferedImage.TYPE_INT_RGB, result.getType());
+        }
+    }
+
+    @Test
+    public void testScaleReturnsSmallRgbImageUnchanged() {
+        BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+        assertSame(image, ImageUtility.scale(image, 200, 200));
+    }
+
+    @Test
+    public void testScaleConvertsTransparentImageToRgb() {
+        BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage result = ImageUtility.scale(image, 200, 200);
+        assertEquals(BufferedImage.TYPE_INT_RGB, result.getType());
+        assertEquals(0xFFFFFF, result.getRGB(5, 5) & 0xFFFFFF);
+        assertNull(ImageUtility.scale(null, 200, 200));
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.thumbnail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sola.common.FileUtility;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@linkplain ThumbnailBatch}.
+ *
+ * @author soladev
+ */
+public class ThumbnailBatchTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("solabatch", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtility.setThumbnailCache(0, 0);
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testThumbnailCacheRequired() {
+        FileUtility.setThumbnailCache(0, 0);
+        try {
+            new ThumbnailBatch(20, 20, 1).createThumbnails(Arrays.asList(
+                    new File(directory, "missing.png").getPath()));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testFormatsIdentifiedFromContent() throws IOException {
+        FileUtility.setThumbnailCache(0, 1024 * 1024);
+        // A PNG image with a misleading extension and a text file named as a JPEG
+        File image = new File(directory, "scan.dat");
+        ImageIO.write(new BufferedImage(100, 50, BufferedImage.TYPE_INT_RGB), "png", image);
+        File text = new File(directory, "notes.jpg");
+        FileOutputStream out = new FileOutputStream(text);
+        try {
+            out.write("Not an image".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        ThumbnailBatch batch = new ThumbnailBatch(20, 20, 2);
+        ThumbnailBatchStatistics stats = batch.createThumbnails(Arrays.asList(
+                image.getPath(), text.getPath()));
+        assertEquals(1, stats.getCreatedCount());
+        assertEquals(1, stats.getFailedCount());
+        assertEquals(Integer.valueOf(1), stats.getFormatCounts().get(FormatSniffer.PNG));
+        assertEquals(Integer.valueOf(1),
+                stats.getFormatCounts().get(ThumbnailBatchStatistics.UNKNOWN_FORMAT));
+        assertNull(stats.getFormatCounts().get("dat"));
+        assertNull(stats.getFormatCounts().get("jpg"));
+
+        // The PNG thumbnail is now cached
+        stats = batch.createThumbnails(Arrays.asList(image.getPath(), text.getPath()));
+        assertEquals(1, stats.getSkippedCount());
+        assertEquals(1, stats.getFailedCount());
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * ******************************************************************************************
+ * Copyright (C) 2014 - Food and Agriculture Organization of the United Nations (FAO).
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,this list
+ *       of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,this list
+ *       of conditions and the following disclaimer in the documentation and/or other
+ *       materials provided with the distribution.
+ *    3. Neither the name of FAO nor the names of its contributors may be used to endorse or
+ *       promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,STRICT LIABILITY,OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *********************************************************************************************
+ */
+package org.sola.common.thumbnail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@linkplain ThumbnailCache}.
+ *
+ * @author soladev
+ */
+public class ThumbnailCacheTest {
+
+    private File directory;
+    private File source;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("solathumbs", "");
+        directory.delete();
+        directory.mkdirs();
+        source = new File(directory, "source.pdf");
+        FileOutputStream out = new FileOutputStream(source);
+        try {
+            out.write(new byte[]{'%', 'P', 'D', 'F'});
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static BufferedImage createThumbnail() {
+        BufferedImage result = new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB);
+        result.setRGB(5, 5, 0x336699);
+        return result;
+    }
+
+    @Test
+    public void testMemoryCacheReturnsCopy() {
+        ThumbnailCache cache = new ThumbnailCache(new File(directory, "thumbs"), 0, 1024 * 1024);
+        BufferedImage thumbnail = createThumbnail();
+        cache.put(source, 20, 20, thumbnail);
+        thumbnail.setRGB(5, 5, 0xFF0000);
+
+        BufferedImage first = cache.get(source, 20, 20);
+        assertNotNull(first);
+        assertEquals(0x336699, first.getRGB(5, 5) & 0xFFFFFF);
+        first.setRGB(5, 5, 0x00FF00);
+
+        BufferedImage second = cache.get(source, 20, 20);
+        assertTrue(first != second);
+        assertEquals(0x336699, second.getRGB(5, 5) & 0xFFFFFF);
+    }
+
+    @Test
+    public void testDiskCacheReturnsCopy() {
+        ThumbnailCache cache = new ThumbnailCache(new File(directory, "thumbs"),
+                1024 * 1024, 1024 * 1024);
+        cache.put(source, 20, 20, createThumbnail());
+        cache.clearMemory();
+
+        BufferedImage first = cache.get(source, 20, 20);
+        assertNotNull(first);
+        assertEquals(0x336699, first.getRGB(5, 5) & 0xFFFFFF);
+        first.setRGB(5, 5, 0x00FF00);
+
+        // The second read comes from the memory cache
+        BufferedImage second = cache.get(source, 20, 20);
+        assertTrue(first != second);
+        assertEquals(0x336699, second.getRGB(5, 5) & 0xFFFFFF);
+    }
+
+    @Test
+    public void testMissingDiskFileRemovedFromIndex() {
+        File thumbs = new File(directory, "thumbs");
+        ThumbnailCache cache = new ThumbnailCache(thumbs, 1024 * 1024, 0);
+        cache.put(source, 20, 20, createThumbnail());
+        assertTrue(cache.contains(source, 20, 20));
+
+        // Remove the thumbnail behind the cache's back
+        String key = ThumbnailCache.getKey(source, 20, 20);
+        assertTrue(findFile(thumbs, key).delete());
+
+        assertNull(cache.get(source, 20, 20));
+        assertFalse(cache.contains(source, 20, 20));
+    }
+
+    private static File findFile(File dir, String prefix) {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isFile() && child.getName().startsWith(prefix)) {
+                    return child;
+                }
+                File result = findFile(child, prefix);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+        return null;
+    }
+}